@@ -0,0 +1,75 @@
+package com.example.pdfcomparator.benchmark;
+
+import com.example.pdfcomparator.service.ComparisonProgress;
+import com.example.pdfcomparator.service.PdfService;
+import com.example.pdfcomparator.service.PdfService.ComparisonOutcome;
+import com.example.pdfcomparator.util.ExclusionHelper.Exclusions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/** {@link PdfService#comparePDFs} on a generated pair: extraction, rendering, line diff, annotation, report and CSV. */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @Param({"20"})
+    public int pages;
+
+    @Param({"40"})
+    public int linesPerPage;
+
+    @Param({"1"})
+    public int imagesPerPage;
+
+    @Param({"0.1"})
+    public double changedPageRatio;
+
+    private File workDir;
+    private SyntheticCorpus.Pair corpus;
+    private Pipeline pipeline;
+    private PdfService pdfService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("pdfcompare-bench-").toFile();
+        SyntheticCorpus.Spec spec = new SyntheticCorpus.Spec();
+        spec.pages = pages;
+        spec.linesPerPage = linesPerPage;
+        spec.imagesPerPage = imagesPerPage;
+        spec.changedPageRatio = changedPageRatio;
+        corpus = SyntheticCorpus.generate(spec, new File(workDir, "corpus"));
+        pipeline = new Pipeline(new File(workDir, "home"));
+        pdfService = pipeline.get(PdfService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pipeline.close();
+        SyntheticCorpus.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public ComparisonOutcome comparePDFs() throws IOException {
+        return pdfService.comparePDFs(corpus.expected, corpus.actual, Exclusions.NONE, ComparisonProgress.NONE);
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.pdfcomparator.benchmark;
+
+import com.example.pdfcomparator.service.DiffImageAnnotator;
+import com.example.pdfcomparator.service.DocumentAnalyzer;
+import com.example.pdfcomparator.service.ImageComparator;
+import com.example.pdfcomparator.service.PageFingerprinter;
+import com.example.pdfcomparator.service.PdfService;
+import com.example.pdfcomparator.service.PixelComparator;
+import com.example.pdfcomparator.service.ReportService;
+import com.example.pdfcomparator.service.WorkspaceManager;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.File;
+
+/**
+ * The comparison services wired as in the application, without the web layer, job queue or
+ * result cache, so every invocation does the full work. Reports and CSVs are written under
+ * {@code outputHome} instead of the configured output root.
+ */
+public class Pipeline implements AutoCloseable {
+
+    private static final String OUTPUT_ROOT = "pdfcompare.workspace.output-root";
+    private static final String INPUT_ROOT = "pdfcompare.workspace.input-root";
+
+    private final AnnotationConfigApplicationContext context;
+
+    public Pipeline(File outputHome) {
+        System.setProperty(OUTPUT_ROOT, new File(outputHome, "output").getAbsolutePath());
+        System.setProperty(INPUT_ROOT, new File(outputHome, "inputs").getAbsolutePath());
+        context = new AnnotationConfigApplicationContext(
+                PageFingerprinter.class, DocumentAnalyzer.class, PixelComparator.class, ImageComparator.class,
+                DiffImageAnnotator.class, ReportService.class, WorkspaceManager.class, PdfService.class);
+    }
+
+    public <T> T get(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    @Override
+    public void close() {
+        context.close();
+        System.clearProperty(OUTPUT_ROOT);
+        System.clearProperty(INPUT_ROOT);
+    }
+}
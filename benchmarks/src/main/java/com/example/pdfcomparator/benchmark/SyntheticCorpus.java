@@ -0,0 +1,156 @@
+package com.example.pdfcomparator.benchmark;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Generates expected/actual PDF pairs for benchmarking. The content is pseudo-random but fully
+ * determined by {@link Spec#seed}, so runs with the same parameters compare the same documents.
+ */
+public class SyntheticCorpus {
+
+    private static final PDType1Font[] FONTS = {
+            PDType1Font.HELVETICA, PDType1Font.HELVETICA_BOLD, PDType1Font.TIMES_ROMAN,
+            PDType1Font.TIMES_ITALIC, PDType1Font.COURIER, PDType1Font.COURIER_BOLD
+    };
+    private static final String[] WORDS = {
+            "invoice", "amount", "total", "customer", "policy", "premium", "account", "balance",
+            "statement", "period", "reference", "address", "payment", "due", "date", "number"
+    };
+
+    public static class Spec {
+        public int pages = 20;
+        public int linesPerPage = 40;
+        /** Distinct fonts used across lines, 1 to 6 standard fonts. */
+        public int fonts = 3;
+        /** Embedded raster images per page. */
+        public int imagesPerPage = 1;
+        public int imageSize = 256;
+        /** Fraction of pages in the actual document that get injected differences. */
+        public double changedPageRatio = 0.1;
+        /** Lines modified, inserted or deleted on each changed page. */
+        public int changesPerPage = 3;
+        public long seed = 42;
+    }
+
+    public static class Pair {
+        public File expected;
+        public File actual;
+    }
+
+    /** Writes {@code expected.pdf} and {@code actual.pdf} for {@code spec} into {@code dir}. */
+    public static Pair generate(Spec spec, File dir) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create corpus directory: " + dir);
+        }
+        Pair pair = new Pair();
+        pair.expected = new File(dir, "expected.pdf");
+        pair.actual = new File(dir, "actual.pdf");
+        write(spec, pair.expected, false);
+        write(spec, pair.actual, true);
+        return pair;
+    }
+
+    private static void write(Spec spec, File file, boolean injectDifferences) throws IOException {
+        // both documents draw from the same sequence; differences come from a separate one
+        Random content = new Random(spec.seed);
+        Random changes = new Random(spec.seed ^ 0x5DEECE66DL);
+
+        try (PDDocument document = new PDDocument()) {
+            for (int p = 0; p < spec.pages; p++) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                document.addPage(page);
+                boolean changed = injectDifferences && changes.nextDouble() < spec.changedPageRatio;
+
+                String[] lines = new String[spec.linesPerPage];
+                int[] fonts = new int[spec.linesPerPage];
+                for (int l = 0; l < lines.length; l++) {
+                    lines[l] = sentence(content, p, l);
+                    fonts[l] = content.nextInt(Math.max(1, Math.min(spec.fonts, FONTS.length)));
+                }
+                long imageSeed = content.nextLong();
+
+                if (changed) {
+                    for (int c = 0; c < spec.changesPerPage && lines.length > 0; c++) {
+                        int l = changes.nextInt(lines.length);
+                        if (lines[l] == null) continue; // already deleted by an earlier change
+                        switch (changes.nextInt(3)) {
+                            case 0 -> lines[l] = lines[l].toUpperCase();
+                            case 1 -> lines[l] = null;
+                            default -> lines[l] = lines[l] + " (amended)";
+                        }
+                    }
+                    imageSeed++;
+                }
+
+                try (PDPageContentStream stream = new PDPageContentStream(document, page)) {
+                    float y = PDRectangle.A4.getHeight() - 50;
+                    float lineHeight = Math.max(8, (PDRectangle.A4.getHeight() - 100) / Math.max(1, spec.linesPerPage));
+                    float fontSize = Math.min(11, lineHeight * 0.8f);
+                    for (int l = 0; l < lines.length; l++) {
+                        if (lines[l] != null) {
+                            stream.beginText();
+                            stream.setFont(FONTS[fonts[l]], fontSize);
+                            stream.newLineAtOffset(40, y);
+                            stream.showText(lines[l]);
+                            stream.endText();
+                        }
+                        y -= lineHeight;
+                    }
+                    for (int i = 0; i < spec.imagesPerPage; i++) {
+                        PDImageXObject image = LosslessFactory.createFromImage(document, image(spec.imageSize, imageSeed + i));
+                        float side = 120;
+                        stream.drawImage(image, PDRectangle.A4.getWidth() - 40 - side, 40 + i * (side + 10), side, side);
+                    }
+                }
+            }
+            document.save(file);
+        }
+    }
+
+    public static void deleteRecursively(File root) throws IOException {
+        if (!root.exists()) return;
+        try (Stream<Path> files = Files.walk(root.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static String sentence(Random random, int page, int line) {
+        StringBuilder text = new StringBuilder().append(page + 1).append('.').append(line + 1);
+        int words = 4 + random.nextInt(8);
+        for (int w = 0; w < words; w++) {
+            text.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    private static BufferedImage image(int size, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, size, size);
+        for (int i = 0; i < 12; i++) {
+            graphics.setColor(new Color(random.nextInt(0xFFFFFF)));
+            graphics.fillOval(random.nextInt(size), random.nextInt(size), 10 + random.nextInt(size / 2), 10 + random.nextInt(size / 2));
+        }
+        graphics.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.benchmark.Pipeline;
+import com.example.pdfcomparator.benchmark.SyntheticCorpus;
+import com.example.pdfcomparator.service.ImageComparator.ImageChange;
+import com.example.pdfcomparator.service.PixelComparator.PixelCompareResult;
+import com.example.pdfcomparator.util.CsvReportExporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each stage of the comparison pipeline on its own, fed with the inputs the previous stages
+ * produce for a generated pair. Lives in the service package to reach the package-private stages
+ * of {@link PdfService}.
+ * <p>
+ * Text lines and image resolutions come from one extraction pass ({@link DocumentAnalyzer#extract}),
+ * so they are measured together by {@link #extractLinesAndImages}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PipelineStageBenchmark {
+
+    @Param({"20"})
+    public int pages;
+
+    @Param({"40"})
+    public int linesPerPage;
+
+    @Param({"3"})
+    public int fonts;
+
+    @Param({"1"})
+    public int imagesPerPage;
+
+    @Param({"0.1"})
+    public double changedPageRatio;
+
+    /** Coarse-to-fine pixel comparison, see {@code pdfcompare.render.tiered.enabled}. */
+    @Param({"false", "true"})
+    public boolean tiered;
+
+    private File workDir;
+    private SyntheticCorpus.Pair corpus;
+    private Pipeline pipeline;
+    private DocumentAnalyzer documentAnalyzer;
+    private PageFingerprinter pageFingerprinter;
+    private PixelComparator pixelComparator;
+    private ImageComparator imageComparator;
+    private DiffImageAnnotator diffImageAnnotator;
+    private PdfService pdfService;
+    private ReportService reportService;
+
+    private DocumentAnalysis expected;
+    private DocumentAnalysis actual;
+    private String outputPath;
+    private PixelCompareResult pixelResult;
+    private Map<Integer, List<ImageChange>> imageChanges;
+    private LineDifferences lineResults;
+    private Map<Integer, File> diffImages;
+    private String reportPath;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("pdfcompare-bench-").toFile();
+        SyntheticCorpus.Spec spec = new SyntheticCorpus.Spec();
+        spec.pages = pages;
+        spec.linesPerPage = linesPerPage;
+        spec.fonts = fonts;
+        spec.imagesPerPage = imagesPerPage;
+        spec.changedPageRatio = changedPageRatio;
+        corpus = SyntheticCorpus.generate(spec, new File(workDir, "corpus"));
+
+        System.setProperty("pdfcompare.render.tiered.enabled", Boolean.toString(tiered));
+        pipeline = new Pipeline(new File(workDir, "home"));
+        documentAnalyzer = pipeline.get(DocumentAnalyzer.class);
+        pageFingerprinter = pipeline.get(PageFingerprinter.class);
+        pixelComparator = pipeline.get(PixelComparator.class);
+        imageComparator = pipeline.get(ImageComparator.class);
+        diffImageAnnotator = pipeline.get(DiffImageAnnotator.class);
+        pdfService = pipeline.get(PdfService.class);
+        reportService = pipeline.get(ReportService.class);
+
+        // run the pipeline once so every stage gets realistic input
+        expected = documentAnalyzer.analyze(corpus.expected);
+        actual = documentAnalyzer.analyze(corpus.actual);
+        outputPath = new File(workDir, "output").getAbsolutePath();
+        pixelResult = renderAndDiff();
+        imageChanges = compareImages();
+        lineResults = compareAllLines();
+        diffImages = annotateDiffImages();
+        reportPath = generateReport();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        expected.close();
+        actual.close();
+        pipeline.close();
+        System.clearProperty("pdfcompare.render.tiered.enabled");
+        SyntheticCorpus.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public List<String> fingerprint() throws IOException {
+        return pageFingerprinter.fingerprint(actual.getDocument());
+    }
+
+    @Benchmark
+    public int extractLinesAndImages() throws IOException {
+        try (DocumentAnalysis analysis = documentAnalyzer.analyze(corpus.actual)) {
+            return analysis.getLines().size() + analysis.getImageResolutions().size();
+        }
+    }
+
+    /** Image XObject matching; difference hashes are decoded in setup, so this measures the cached path. */
+    @Benchmark
+    public Map<Integer, List<ImageChange>> compareImages() {
+        Map<Integer, List<ImageChange>> changes = new TreeMap<>();
+        for (int page = 1; page <= pages; page++) {
+            List<ImageChange> onPage = imageComparator.comparePage(page,
+                    expected.getImages().getOrDefault(page, List.of()), actual.getImages().getOrDefault(page, List.of()));
+            if (!onPage.isEmpty()) changes.put(page, onPage);
+        }
+        return changes;
+    }
+
+    @Benchmark
+    public LineDifferences compareAllLines() {
+        return pdfService.compareAllLines(expected.getLines(), actual.getLines(),
+                expected.getImageResolutions(), actual.getImageResolutions(), pixelResult.getDifferentPages(), imageChanges);
+    }
+
+    @Benchmark
+    public PixelCompareResult renderAndDiff() throws IOException {
+        return pixelComparator.compare(pixelComparator.pages(expected), pixelComparator.pages(actual),
+                outputPath, Collections.emptySet(), ComparisonProgress.NONE);
+    }
+
+    @Benchmark
+    public Map<Integer, File> annotateDiffImages() throws IOException {
+        return diffImageAnnotator.annotate(pixelResult, lineResults, outputPath, ComparisonProgress.NONE);
+    }
+
+    @Benchmark
+    public String generateReport() throws IOException {
+        return reportService.generateReport(outputPath, "PDFs should be identical", "Differences detected", lineResults,
+                List.of(), diffImages, 0, pages);
+    }
+
+    @Benchmark
+    public String exportCsv() throws IOException {
+        return CsvReportExporter.exportLineDifferencesToCsv(lineResults, reportPath);
+    }
+}
@@ -1,13 +1,20 @@
 package com.example.pdfcomparator;
 
 
-import org.springframework.boot.SpringApplication;    
+import com.example.pdfcomparator.cli.BatchCommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
 @SpringBootApplication
 public class PdfComparatorApplication {
     public static void main(String[] args) {
-        SpringApplication.run(PdfComparatorApplication.class, args);
+        SpringApplication application = new SpringApplication(PdfComparatorApplication.class);
+        if (BatchCommandLineRunner.isBatch(args)) {
+            // a command-line batch needs no web server and exits with the batch verdict
+            application.setWebApplicationType(WebApplicationType.NONE);
+            System.exit(SpringApplication.exit(application.run(args)));
+        }
+        application.run(args);
     }
 }
-
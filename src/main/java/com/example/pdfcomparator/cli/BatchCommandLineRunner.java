@@ -0,0 +1,90 @@
+package com.example.pdfcomparator.cli;
+
+import com.example.pdfcomparator.service.BatchComparisonService;
+import com.example.pdfcomparator.service.BatchJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a batch from the command line of the application jar and exits:
+ * <pre>
+ * java -jar pdf-comparator.jar --batch.expected=rc1/ --batch.actual=rc2/ [--batch.exclusions=exclusions.json]
+ * java -jar pdf-comparator.jar --batch.manifest=pairs.json
+ * </pre>
+ * The exit code is 0 when every pair matches, 1 when some differ and 2 when some could not be
+ * compared.
+ */
+@Component
+public class BatchCommandLineRunner implements ApplicationRunner, ExitCodeGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchCommandLineRunner.class);
+    private static final long PROGRESS_INTERVAL_SECONDS = 10;
+
+    @Autowired
+    private BatchComparisonService batchComparisonService;
+
+    private int exitCode;
+
+    /** Whether the arguments ask for a command-line batch. */
+    public static boolean isBatch(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--batch.expected=") || arg.startsWith("--batch.manifest=")) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        String manifest = option(args, "batch.manifest");
+        String expected = option(args, "batch.expected");
+        if (manifest == null && expected == null) return;
+
+        List<BatchJob.Pair> pairs;
+        if (manifest != null) {
+            Path manifestFile = Paths.get(manifest).toAbsolutePath();
+            pairs = batchComparisonService.readManifest(Files.readString(manifestFile, StandardCharsets.UTF_8), manifestFile.getParent());
+        } else {
+            pairs = batchComparisonService.pairDirectories(expected, option(args, "batch.actual"));
+        }
+        String exclusions = option(args, "batch.exclusions");
+        String exclusionsJson = exclusions != null ? Files.readString(Paths.get(exclusions), StandardCharsets.UTF_8) : null;
+
+        BatchJob batch = batchComparisonService.submit(pairs, exclusionsJson);
+        while (!batch.await(PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS)) {
+            log.info("Batch progress: {}", batch.getProgress());
+        }
+
+        System.out.printf("Compared %d pairs: %d passed, %d with differences, %d not compared%n",
+                batch.getPairsTotal(), batch.getPassed(), batch.getFailed(), batch.getErrors());
+        for (BatchJob.Pair pair : batch.getPairs()) {
+            if (!Boolean.TRUE.equals(pair.getPassed())) {
+                System.out.printf("  %s: %s%n", pair.getName(), pair.getPassed() != null
+                        ? pair.getDifferences() + " differences, report " + pair.getReportPath() : pair.getError());
+            }
+        }
+        System.out.println("Summary: " + (batch.getSummaryPath() != null ? batch.getSummaryPath() : batch.getError()));
+        exitCode = batch.getErrors() > 0 ? 2 : batch.getFailed() > 0 ? 1 : 0;
+    }
+
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    private static String option(ApplicationArguments args, String name) {
+        List<String> values = args.getOptionValues(name);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.pdfcomparator.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class AsyncConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncConfig.class);
+
+    /**
+     * Runs comparison jobs off the Tomcat request threads. Uses one virtual thread per job when
+     * the runtime supports it (Java 21+); the project still targets Java 17, so the factory is
+     * looked up reflectively and a bounded platform pool is used otherwise.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService comparisonExecutor(@Value("${pdfcompare.jobs.fallback-threads:0}") int fallbackThreads) {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            log.info("Comparison jobs run on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            int threads = fallbackThreads > 0 ? fallbackThreads : Runtime.getRuntime().availableProcessors();
+            log.info("Virtual threads unavailable, comparison jobs run on {} platform threads", threads);
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.pdfcomparator.config;
+
+import com.example.pdfcomparator.cli.BatchCommandLineRunner;
+import com.example.pdfcomparator.service.ComparisonProgress;
+import com.example.pdfcomparator.service.PdfService;
+import com.example.pdfcomparator.util.ExclusionHelper.Exclusions;
+import jakarta.annotation.PostConstruct;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.fontbox.FontBoxFont;
+import org.apache.pdfbox.pdmodel.font.FontMappers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Warms the comparison pipeline up at startup. Spring Boot reports readiness only after the
+ * application runners have finished, so the first real request no longer pays for the PDFBox
+ * system font scan, the lazy initialisation of AWT, ImageIO and iText, and a cold JIT on the
+ * extraction and render paths.
+ * <p>
+ * The PDFBox font cache is kept in {@code pdfcompare.warmup.font-cache-dir}, so a restart,
+ * or a pod with that directory on a volume, reads it instead of scanning the fonts again.
+ * Then a generated two-page pair with a text, an image and a pixel difference is compared
+ * {@code iterations} times through {@link PdfService}, including annotation, report and CSV.
+ * <p>
+ * With {@code pdfcompare.warmup.exit=true} the application exits after the warm-up. This is a
+ * training run for a class data sharing archive that covers the pipeline's classes:
+ * <pre>
+ * java -XX:ArchiveClassesAtExit=app.jsa -Dpdfcompare.warmup.exit=true -cp ... (unpacked jar)
+ * java -XX:SharedArchiveFile=app.jsa -cp ...
+ * </pre>
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class WarmUpRunner implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(WarmUpRunner.class);
+    private static final String FONT_CACHE_PROPERTY = "pdfbox.fontcache";
+
+    @Autowired
+    private PdfService pdfService;
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    @Value("${pdfcompare.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${pdfcompare.warmup.iterations:3}")
+    private int iterations;
+
+    @Value("${pdfcompare.warmup.max-seconds:60}")
+    private long maxSeconds;
+
+    @Value("${pdfcompare.warmup.font-cache-dir:${user.home}/.pdf-comparator/font-cache}")
+    private String fontCacheDir;
+
+    @Value("${pdfcompare.warmup.exit:false}")
+    private boolean exitAfterWarmUp;
+
+    /** Points PDFBox at the persistent font cache before anything looks up a font; an explicit -Dpdfbox.fontcache wins. */
+    @PostConstruct
+    void fontCacheLocation() throws IOException {
+        if (System.getProperty(FONT_CACHE_PROPERTY) == null && !fontCacheDir.isBlank()) {
+            System.setProperty(FONT_CACHE_PROPERTY, Files.createDirectories(Path.of(fontCacheDir)).toString());
+        }
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (!enabled || BatchCommandLineRunner.isBatch(args.getSourceArgs())) return;
+        warmUp();
+        if (exitAfterWarmUp) {
+            log.info("Warm-up done, exiting as configured by pdfcompare.warmup.exit");
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    private void warmUp() {
+        long started = System.nanoTime();
+        Path work = null;
+        try {
+            // the first lookup loads the font cache, or scans the system fonts and writes it
+            FontBoxFont font = FontMappers.instance().getFontBoxFont("Helvetica", null).getFont();
+            long fontsMillis = millisSince(started);
+
+            work = Files.createTempDirectory("pdf-comparator-warmup");
+            File expected = writeSample(work.resolve("expected.pdf").toFile(), false);
+            File actual = writeSample(work.resolve("actual.pdf").toFile(), true);
+            long deadline = started + maxSeconds * 1_000_000_000L;
+            long first = -1, last = -1;
+            int runs = 0;
+            while (runs < iterations && System.nanoTime() < deadline) {
+                long runStarted = System.nanoTime();
+                pdfService.comparePDFs(expected, actual, Exclusions.NONE, ComparisonProgress.NONE,
+                        Files.createDirectory(work.resolve("run-" + runs)).toFile());
+                last = millisSince(runStarted);
+                if (first < 0) first = last;
+                runs++;
+            }
+            log.info("Warm-up finished in {} ms: fonts {} ms ({}), {} comparisons, first {} ms, last {} ms",
+                    millisSince(started), fontsMillis, font.getName(), runs, first, last);
+        } catch (Exception | LinkageError e) {
+            // a failed warm-up only costs the first request its speed
+            log.warn("Warm-up failed after {} ms", millisSince(started), e);
+        } finally {
+            if (work != null) deleteRecursively(work);
+        }
+    }
+
+    /**
+     * Writes a two-page pair: page 1 with text in three fonts and an image, page 2 with text
+     * only. The actual side changes a word and the image on page 1, so every stage runs, and
+     * keeps page 2 identical, so the fingerprint shortcut runs too.
+     */
+    private static File writeSample(File file, boolean changed) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            PDPage first = new PDPage(PDRectangle.LETTER);
+            document.addPage(first);
+            BufferedImage pixels = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < 64; y++) {
+                for (int x = 0; x < 64; x++) pixels.setRGB(x, y, changed ? (x * 4) << 8 : (x * 4) << 16 | y * 4);
+            }
+            PDImageXObject image = LosslessFactory.createFromImage(document, pixels);
+            try (PDPageContentStream content = new PDPageContentStream(document, first)) {
+                writeLines(content, PDType1Font.HELVETICA_BOLD, 16, 720, "Policy statement", changed ? "Invoice 1002" : "Invoice 1001");
+                writeLines(content, PDType1Font.HELVETICA, 10, 680, "Amount due 120.00", "Due date 2024-01-31", "Reference ABC-123");
+                writeLines(content, PDType1Font.COURIER, 9, 620, "Account 0042 balance 0.00");
+                content.drawImage(image, 72, 480, 96, 96);
+            }
+            PDPage second = new PDPage(PDRectangle.LETTER);
+            document.addPage(second);
+            try (PDPageContentStream content = new PDPageContentStream(document, second)) {
+                writeLines(content, PDType1Font.TIMES_ROMAN, 11, 720, "Terms and conditions", "Payment is due within 30 days.");
+            }
+            document.save(file);
+        }
+        return file;
+    }
+
+    private static void writeLines(PDPageContentStream content, PDFont font, float size, float top, String... lines) throws IOException {
+        content.beginText();
+        content.setFont(font, size);
+        content.newLineAtOffset(72, top);
+        for (String line : lines) {
+            content.showText(line);
+            content.newLineAtOffset(0, -size * 1.5f);
+        }
+        content.endText();
+    }
+
+    private static long millisSince(long started) {
+        return (System.nanoTime() - started) / 1_000_000;
+    }
+
+    private static void deleteRecursively(Path root) {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            log.debug("Could not delete warm-up directory {}", root, e);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.pdfcomparator.controller;
+
+import com.example.pdfcomparator.service.ComparisonJob;
+import com.example.pdfcomparator.service.ComparisonJobService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/** {@code /actuator/comparisons}: queued and running comparison jobs with their stage, progress and timings so far. */
+@Component
+@Endpoint(id = "comparisons")
+public class ComparisonsEndpoint {
+
+    @Autowired
+    private ComparisonJobService comparisonJobService;
+
+    @ReadOperation
+    public List<ComparisonJob> inFlight() {
+        return comparisonJobService.inFlight();
+    }
+}
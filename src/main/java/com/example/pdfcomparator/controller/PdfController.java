@@ -1,26 +1,77 @@
 package com.example.pdfcomparator.controller;
-import com.example.pdfcomparator.service.PdfService;
+import com.example.pdfcomparator.service.AdmissionRejectedException;
+import com.example.pdfcomparator.service.ArtifactDownloadService;
+import com.example.pdfcomparator.service.Baseline;
+import com.example.pdfcomparator.service.BatchComparisonService;
+import com.example.pdfcomparator.service.BatchJob;
+import com.example.pdfcomparator.service.BaselineRegistry;
+import com.example.pdfcomparator.service.ComparisonJob;
+import com.example.pdfcomparator.service.ComparisonJobService;
+import com.example.pdfcomparator.service.ExclusionSetRegistry;
+import com.example.pdfcomparator.service.HistoryStore;
+import com.example.pdfcomparator.service.PageVerdict;
+import com.example.pdfcomparator.service.PdfService.ComparisonOutcome;
+import com.example.pdfcomparator.util.CsvReportExporter;
+import com.example.pdfcomparator.util.ExclusionHelper.Exclusions;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
-import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URLDecoder;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 @Controller
 public class PdfController {
 
+    private static final String NDJSON = "application/x-ndjson";
+    private static final long STREAM_POLL_MILLIS = 100;
+    private static final long STREAM_KEEPALIVE_SECONDS = 5;
+
+    @Autowired
+    private ComparisonJobService comparisonJobService;
+
+    @Autowired
+    private BaselineRegistry baselineRegistry;
+
+    @Autowired
+    private ExclusionSetRegistry exclusionSetRegistry;
+
+    @Autowired
+    private ArtifactDownloadService artifactDownloadService;
+
+    @Autowired
+    private BatchComparisonService batchComparisonService;
+
+    @Autowired
+    private HistoryStore historyStore;
+
     @Autowired
-    private PdfService pdfService;
+    private ObjectMapper objectMapper;
 
     @GetMapping("/")
     public String index() {
@@ -28,61 +79,311 @@ public class PdfController {
     }
 
     @PostMapping("/compare")
-    public String comparePDFs(@RequestParam("file1") MultipartFile file1,
-                              @RequestParam("file2") MultipartFile file2,
-                              @RequestParam(value = "exclusionsJson", required = false) String exclusionsJson,
-                              Model model) throws IOException {
-        String result = pdfService.comparePDFs(file1, file2, exclusionsJson);
-        model.addAttribute("result", result);
-
-        // Extract report and CSV paths from result string
-        if (result.contains("PDF report: ") && result.contains("CSV report: ")) {
-            String reportPath = result.split("PDF report: ")[1].split(" \\|")[0].trim();
-            String csvPath = result.split("CSV report: ")[1].trim();
-            model.addAttribute("reportPath", reportPath);
-            model.addAttribute("csvPath", csvPath);
+    @ResponseBody
+    public ResponseEntity<Map<String, String>> comparePDFs(@RequestParam(value = "file1", required = false) MultipartFile file1,
+                                                           @RequestParam(value = "baseline", required = false) String baseline,
+                                                           @RequestParam("file2") MultipartFile file2,
+                                                           @RequestParam(value = "exclusionsJson", required = false) String exclusionsJson) throws IOException {
+        ComparisonJob job = usesBaseline(file1, baseline)
+                ? comparisonJobService.submitAgainstBaseline(baseline, file2, exclusionsJson)
+                : comparisonJobService.submit(file1, file2, exclusionsJson);
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .header(HttpHeaders.LOCATION, "/jobs/" + job.getId())
+                .body(Map.of("jobId", job.getId(), "statusUrl", "/jobs/" + job.getId()));
+    }
+
+    /**
+     * Runs a comparison like {@link #comparePDFs} and streams its results as NDJSON, one event
+     * per line, while it runs:
+     * <pre>
+     * {"type":"page","page":1,"verdict":"identical"}                  skipped: identical or excluded
+     * {"type":"pixels","page":4,"verdict":"mismatch"}                 as soon as page 4 renders differently
+     * {"type":"page","page":4,"verdict":"mismatch","differences":[...]}
+     * {"type":"progress","progress":"rendering page 12 of 300"}      while nothing else happens
+     * {"type":"summary","passed":false,"reportUrl":"...","csvUrl":"...",...}
+     * </pre>
+     * With {@code failFast} the comparison stops at the first differing page; the summary then
+     * names that page and has no report. Closing the connection cancels the comparison.
+     */
+    @PostMapping(value = "/compare/stream", produces = NDJSON)
+    public void compareStreaming(@RequestParam(value = "file1", required = false) MultipartFile file1,
+                                 @RequestParam(value = "baseline", required = false) String baseline,
+                                 @RequestParam("file2") MultipartFile file2,
+                                 @RequestParam(value = "exclusionsJson", required = false) String exclusionsJson,
+                                 @RequestParam(value = "failFast", defaultValue = "false") boolean failFast,
+                                 HttpServletResponse response) throws IOException, InterruptedException {
+        BlockingQueue<PageVerdict> events = new LinkedBlockingQueue<>();
+        ComparisonJob job = usesBaseline(file1, baseline)
+                ? comparisonJobService.submitAgainstBaseline(baseline, file2, exclusionsJson, events::add, failFast)
+                : comparisonJobService.submit(file1, file2, exclusionsJson, events::add, failFast);
+
+        response.setContentType(NDJSON);
+        response.setHeader(HttpHeaders.LOCATION, "/jobs/" + job.getId());
+        OutputStream out = response.getOutputStream();
+        try {
+            long lastWrite = System.nanoTime();
+            while (true) {
+                PageVerdict event = events.poll(STREAM_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (event != null) {
+                    writeEvent(out, event);
+                    if (events.isEmpty()) out.flush();
+                    lastWrite = System.nanoTime();
+                } else if (job.isFinished()) {
+                    // verdicts are queued before the job finishes, so none can follow
+                    if (events.isEmpty()) break;
+                } else if (System.nanoTime() - lastWrite > TimeUnit.SECONDS.toNanos(STREAM_KEEPALIVE_SECONDS)) {
+                    // also notices a client that went away while a long stage reports nothing
+                    writeEvent(out, Map.of("type", "progress", "progress", job.getProgress()));
+                    out.flush();
+                    lastWrite = System.nanoTime();
+                }
+            }
+            writeEvent(out, summary(job));
+            out.flush();
+        } catch (IOException e) {
+            comparisonJobService.cancel(job.getId());
+            throw e;
         }
+    }
 
-        return "index";
+    private static boolean usesBaseline(MultipartFile file1, String baseline) {
+        boolean hasFile1 = file1 != null && !file1.isEmpty();
+        boolean hasBaseline = baseline != null && !baseline.isBlank();
+        if (hasFile1 == hasBaseline) {
+            throw new IllegalArgumentException("Provide exactly one of file1 or baseline");
+        }
+        return hasBaseline;
     }
 
-    @GetMapping("/downloadReport")
-    public ResponseEntity<Resource> downloadReport(@RequestParam("path") String path) throws IOException {
-        String decodedPath = URLDecoder.decode(path, StandardCharsets.UTF_8);
-        File file = new File(decodedPath);
+    private void writeEvent(OutputStream out, Object event) throws IOException {
+        out.write(objectMapper.writeValueAsBytes(event));
+        out.write('\n');
+    }
 
-        if (!file.exists()) {
-            return ResponseEntity.notFound().build();
+    private static Map<String, Object> summary(ComparisonJob job) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("type", "summary");
+        summary.put("jobId", job.getId());
+        summary.put("status", job.getStatus());
+        ComparisonOutcome outcome = job.getResult();
+        if (outcome != null) {
+            summary.put("passed", outcome.passed);
+            summary.put("message", outcome.message);
+            if (outcome.stoppedAtPage > 0) summary.put("stoppedAtPage", outcome.stoppedAtPage);
+            if (outcome.reportPath != null) {
+                summary.put("reportUrl", "/downloadReport?path=" + URLEncoder.encode(outcome.reportPath, StandardCharsets.UTF_8));
+            }
+            if (outcome.csvPath != null) {
+                summary.put("csvUrl", "/downloadCsv?jobId=" + job.getId() + "&path=" + URLEncoder.encode(outcome.csvPath, StandardCharsets.UTF_8));
+            }
+        } else {
+            summary.put("error", job.getError());
         }
+        summary.put("counts", job.getCounts());
+        return summary;
+    }
+
+    @GetMapping("/jobs/{id}")
+    @ResponseBody
+    public ResponseEntity<ComparisonJob> jobStatus(@PathVariable("id") String id) {
+        ComparisonJob job = comparisonJobService.get(id);
+        return job != null ? ResponseEntity.ok(job) : ResponseEntity.notFound().build();
+    }
 
-        InputStreamResource resource = new InputStreamResource(new FileInputStream(file));
-        HttpHeaders headers = new HttpHeaders();
-        headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + file.getName());
+    @DeleteMapping("/jobs/{id}")
+    @ResponseBody
+    public ResponseEntity<ComparisonJob> cancelJob(@PathVariable("id") String id) {
+        ComparisonJob job = comparisonJobService.cancel(id);
+        return job != null ? ResponseEntity.ok(job) : ResponseEntity.notFound().build();
+    }
 
-        return ResponseEntity.ok()
-                .headers(headers)
-                .contentLength(file.length())
-                .contentType(MediaType.APPLICATION_PDF)
-                .body(resource);
+    /**
+     * Starts a batch over files on this machine, given as two directories or as a manifest:
+     * <pre>
+     * {"expectedDir": "/data/rc1", "actualDir": "/data/rc2", "exclusions": {...}}
+     * {"pairs": [{"name": "invoice", "expected": "/data/rc1/a.pdf", "actual": "/data/rc2/a.pdf"}]}
+     * </pre>
+     */
+    @PostMapping(value = "/batches", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<BatchJob> startBatch(@RequestBody JsonNode request) throws IOException {
+        List<BatchJob.Pair> pairs = request.has("pairs")
+                ? batchComparisonService.readManifest(request, Paths.get(""))
+                : batchComparisonService.pairDirectories(request.path("expectedDir").asText(null), request.path("actualDir").asText(null));
+        batchComparisonService.checkWithinRoots(pairs);
+        JsonNode exclusions = request.path("exclusions");
+        BatchJob batch = batchComparisonService.submit(pairs,
+                exclusions.isMissingNode() || exclusions.isNull() ? null : exclusions.isTextual() ? exclusions.asText() : exclusions.toString());
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .header(HttpHeaders.LOCATION, "/batches/" + batch.getId())
+                .body(batch);
     }
 
+    @GetMapping("/batches/{id}")
+    @ResponseBody
+    public ResponseEntity<BatchJob> batchStatus(@PathVariable("id") String id) {
+        BatchJob batch = batchComparisonService.get(id);
+        return batch != null ? ResponseEntity.ok(batch) : ResponseEntity.notFound().build();
+    }
+
+    @DeleteMapping("/batches/{id}")
+    @ResponseBody
+    public ResponseEntity<BatchJob> cancelBatch(@PathVariable("id") String id) {
+        BatchJob batch = batchComparisonService.cancel(id);
+        return batch != null ? ResponseEntity.ok(batch) : ResponseEntity.notFound().build();
+    }
+
+    @PostMapping("/baselines")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> registerBaseline(@RequestParam("name") String name,
+                                                                @RequestParam("file") MultipartFile file) throws IOException {
+        Baseline baseline = baselineRegistry.register(name, file);
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .body(Map.of("name", baseline.getName(),
+                        "sha256", baseline.getSha256(),
+                        "pages", baseline.getPageCount(),
+                        "lines", baseline.getLines().size()));
+    }
+
+    @GetMapping("/baselines")
+    @ResponseBody
+    public List<String> listBaselines() throws IOException {
+        return baselineRegistry.list();
+    }
+
+    @DeleteMapping("/baselines/{name}")
+    @ResponseBody
+    public ResponseEntity<Void> deleteBaseline(@PathVariable("name") String name) throws IOException {
+        return baselineRegistry.delete(name) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    @PutMapping(value = "/exclusion-sets/{name}", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Map<String, Object> saveExclusionSet(@PathVariable("name") String name, @RequestBody String json) throws IOException {
+        Exclusions exclusions = exclusionSetRegistry.save(name, json);
+        return Map.of("name", name, "pages", exclusions.getPages(), "regions", exclusions.regionCount());
+    }
+
+    @GetMapping("/exclusion-sets")
+    @ResponseBody
+    public List<String> listExclusionSets() throws IOException {
+        return exclusionSetRegistry.list();
+    }
+
+    @DeleteMapping("/exclusion-sets/{name}")
+    @ResponseBody
+    public ResponseEntity<Void> deleteExclusionSet(@PathVariable("name") String name) throws IOException {
+        return exclusionSetRegistry.delete(name) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    /** Runs of a document (upload file name, baseline name or batch pair name) in the last {@code days}, newest first. */
+    @GetMapping("/history")
+    @ResponseBody
+    public ResponseEntity<List<HistoryStore.RunSummary>> history(@RequestParam("document") String document,
+                                                                 @RequestParam(value = "days", defaultValue = "30") int days,
+                                                                 @RequestParam(value = "limit", defaultValue = "100") int limit) throws SQLException {
+        if (!historyStore.isEnabled()) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(historyStore.history(document, since(days), positive("limit", limit)));
+    }
+
+    /** Lines of a document that differed in some but not all of its runs in the last {@code days}. */
+    @GetMapping("/history/flaky")
+    @ResponseBody
+    public ResponseEntity<List<HistoryStore.FlakyLine>> flakyLines(@RequestParam("document") String document,
+                                                                   @RequestParam(value = "days", defaultValue = "30") int days,
+                                                                   @RequestParam(value = "limit", defaultValue = "100") int limit) throws SQLException {
+        if (!historyStore.isEnabled()) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(historyStore.flakyLines(document, since(days), positive("limit", limit)));
+    }
+
+    private static Instant since(int days) {
+        return Instant.now().minus(Duration.ofDays(positive("days", days)));
+    }
+
+    private static int positive(String name, int value) {
+        if (value <= 0) throw new IllegalArgumentException(name + " must be positive");
+        return value;
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseBody
+    public ResponseEntity<Map<String, String>> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+    }
+
+    @ExceptionHandler(AdmissionRejectedException.class)
+    @ResponseBody
+    public ResponseEntity<Map<String, String>> serviceUnavailable(AdmissionRejectedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(Map.of("error", e.getMessage()));
+    }
+
+    @GetMapping("/downloadReport")
+    public void downloadReport(@RequestParam("path") String path,
+                               HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Path file = artifactDownloadService.resolve(URLDecoder.decode(path, StandardCharsets.UTF_8));
+        if (file == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        artifactDownloadService.send(file, MediaType.APPLICATION_PDF_VALUE, null, file.getFileName().toString(), request, response);
+    }
+
+    /**
+     * Sends the CSV of line differences. For a job that ran in this process the rows are
+     * written straight from its results; otherwise, and for ranged or conditional requests, the
+     * exported file is sent, as-is with Content-Encoding gzip when it is compressed and the client
+     * accepts gzip.
+     */
     @GetMapping("/downloadCsv")
-    public ResponseEntity<Resource> downloadCsv(@RequestParam("path") String path) throws IOException {
-        String decodedPath = URLDecoder.decode(path, StandardCharsets.UTF_8);
-        File file = new File(decodedPath);
+    public void downloadCsv(@RequestParam(value = "path", required = false) String path,
+                            @RequestParam(value = "jobId", required = false) String jobId,
+                            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ComparisonOutcome outcome = null;
+        if (jobId != null) {
+            ComparisonJob job = comparisonJobService.get(jobId);
+            outcome = job != null ? job.getResult() : null;
+        }
+        // a ranged or conditional request needs the stored file's ETag and length
+        boolean plainRequest = request.getHeader(HttpHeaders.RANGE) == null && request.getHeader(HttpHeaders.IF_NONE_MATCH) == null;
+        if (outcome != null && outcome.differences != null && plainRequest) {
+            response.setContentType("text/csv;charset=UTF-8");
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + csvName(outcome.csvPath) + "\"");
+            CsvReportExporter.writeLineDifferences(outcome.differences, outcome.reportPath,
+                    CsvReportExporter.openWriter(response.getOutputStream()));
+            return;
+        }
 
-        if (!file.exists()) {
-            return ResponseEntity.notFound().build();
+        if (outcome != null) {
+            path = outcome.csvPath;
+        } else if (path == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Path file = artifactDownloadService.resolve(URLDecoder.decode(path, StandardCharsets.UTF_8));
+        if (file == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
 
-        InputStreamResource resource = new InputStreamResource(new FileInputStream(file));
-        HttpHeaders headers = new HttpHeaders();
-        headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + file.getName());
+        String name = csvName(file.getFileName().toString());
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (!file.toString().endsWith(".gz")) {
+            artifactDownloadService.send(file, "text/csv;charset=UTF-8", null, name, request, response);
+        } else if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            artifactDownloadService.send(file, "text/csv;charset=UTF-8", "gzip", name, request, response);
+        } else {
+            response.setContentType("text/csv;charset=UTF-8");
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + name + "\"");
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(file), 64 * 1024)) {
+                in.transferTo(response.getOutputStream());
+            }
+        }
+    }
 
-        return ResponseEntity.ok()
-                .headers(headers)
-                .contentLength(file.length())
-                .contentType(MediaType.parseMediaType("text/csv"))
-                .body(resource);
+    private static String csvName(String fileName) {
+        String name = Paths.get(fileName).getFileName().toString();
+        return name.endsWith(".gz") ? name.substring(0, name.length() - 3) : name;
     }
 }
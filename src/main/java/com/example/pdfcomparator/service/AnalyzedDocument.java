@@ -0,0 +1,25 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.service.DocumentAnalysis.ImageInfo;
+import com.example.pdfcomparator.service.DocumentAnalysis.PageInfo;
+
+import java.util.List;
+import java.util.Map;
+
+/** Extracted content of one side of a comparison, either freshly analysed or loaded from a baseline. */
+public interface AnalyzedDocument {
+
+    int getPageCount();
+
+    LineStore getLines();
+
+    Map<Integer, String> getImageResolutions();
+
+    /** Image XObjects per page (1-based), or null when they were not recorded. */
+    Map<Integer, List<ImageInfo>> getImages();
+
+    List<PageInfo> getPages();
+
+    /** Content fingerprint per page (see {@link PageFingerprinter}), or null when not computed. */
+    List<String> getPageFingerprints();
+}
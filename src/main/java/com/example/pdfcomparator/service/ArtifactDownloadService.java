@@ -0,0 +1,212 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.util.HashingSpooler;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves report artifacts from the configured output directories with single byte-range
+ * requests, strong ETags (SHA-256 of the content, computed once per file version and kept for
+ * the most recently served {@code etag-cache-entries} files) and
+ * conditional GETs. Bodies go out through Tomcat's sendfile when the connector supports it, and
+ * through {@link FileChannel#transferTo} to the response stream otherwise.
+ */
+@Service
+public class ArtifactDownloadService {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    // same cut-off as Tomcat's DefaultServlet; small bodies are cheaper to write directly
+    private static final long SENDFILE_MIN_BYTES = 48 * 1024;
+
+    @Value("${pdfcompare.downloads.roots:${pdfcompare.workspace.output-root:${user.home}/OneDrive - LTIMindtree/Desktop/TestResult}}")
+    private String[] roots;
+
+    private final List<Path> rootPaths = new ArrayList<>();
+    private final Map<Path, Tag> etags;
+
+    private static class Tag {
+        final long size, modified;
+        final String etag;
+
+        Tag(long size, long modified, String etag) {
+            this.size = size;
+            this.modified = modified;
+            this.etag = etag;
+        }
+    }
+
+    public ArtifactDownloadService(@Value("${pdfcompare.downloads.etag-cache-entries:10000}") int cacheEntries) {
+        this.etags = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Tag> eldest) {
+                return size() > cacheEntries;
+            }
+        };
+    }
+
+    @PostConstruct
+    void resolveRoots() {
+        for (String root : roots) {
+            if (!root.isBlank()) rootPaths.add(Paths.get(root.trim()).toAbsolutePath().normalize());
+        }
+    }
+
+    /**
+     * Resolves {@code path} to an existing file under one of the output directories.
+     *
+     * @return the real path, or null if the file does not exist.
+     * @throws IllegalArgumentException if the path points outside the output directories.
+     */
+    public Path resolve(String path) throws IOException {
+        Path file;
+        try {
+            file = Paths.get(path).toRealPath();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        for (Path root : rootPaths) {
+            Path realRoot = Files.exists(root) ? root.toRealPath() : root;
+            if (file.startsWith(realRoot) && Files.isRegularFile(file)) return file;
+        }
+        throw new IllegalArgumentException("Not a downloadable artifact: " + path);
+    }
+
+    /**
+     * Writes {@code file} to the response, honouring If-None-Match, If-Range and a single
+     * Range. Multiple ranges are answered with the full body, which RFC 9110 permits.
+     */
+    public void send(Path file, String contentType, String contentEncoding, String downloadName,
+                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length, modified;
+        try {
+            length = Files.size(file);
+            modified = Files.getLastModifiedTime(file).toMillis();
+        } catch (NoSuchFileException e) {
+            // deleted since it was resolved, e.g. by workspace cleanup
+            synchronized (etags) {
+                etags.remove(file);
+            }
+            throw e;
+        }
+        String etag = etag(file, length, modified);
+
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, modified);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + downloadName + "\"");
+        if (contentEncoding != null) response.setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType(contentType);
+
+        long start = 0, end = length - 1;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (rangeHeader != null && length > 0 && (ifRange == null || ifRange.equals(etag))) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(rangeHeader);
+            } catch (IllegalArgumentException e) {
+                ranges = List.of();
+            }
+            if (ranges.size() == 1) {
+                HttpRange range = ranges.get(0);
+                start = range.getRangeStart(length);
+                end = range.getRangeEnd(length);
+                if (start >= length || start > end) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if ("HEAD".equals(request.getMethod()) || count == 0) return;
+
+        if (count >= SENDFILE_MIN_BYTES && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            OutputStream out = response.getOutputStream();
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = start, remaining = count;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, target);
+                if (sent <= 0) throw new IOException("Short transfer of " + file);
+                position += sent;
+                remaining -= sent;
+            }
+            out.flush();
+        }
+    }
+
+    private String etag(Path file, long length, long modified) throws IOException {
+        synchronized (etags) {
+            Tag tag = etags.get(file);
+            if (tag != null && tag.size == length && tag.modified == modified) return tag.etag;
+            // a rewritten file's old tag must not outlive a failed hash below
+            etags.remove(file);
+        }
+
+        MessageDigest digest = HashingSpooler.sha256();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        String etag = "\"" + HexFormat.of().formatHex(digest.digest()) + "\"";
+        synchronized (etags) {
+            etags.put(file, new Tag(length, modified, etag));
+        }
+        return etag;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) value = value.substring(2);
+            if (value.equals("*") || value.equals(etag)) return true;
+        }
+        return false;
+    }
+}
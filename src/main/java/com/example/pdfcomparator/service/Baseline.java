@@ -0,0 +1,120 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.service.DocumentAnalysis.ImageInfo;
+import com.example.pdfcomparator.service.DocumentAnalysis.PageInfo;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A registered golden document: its extracted lines, image metadata and page rasters as stored
+ * by {@link BaselineRegistry}. Serves as the expected side of a comparison without re-parsing
+ * or re-rendering the original PDF.
+ */
+public class Baseline implements AnalyzedDocument, PageSource {
+
+    private final String name;
+    private final File directory;
+    String sha256;
+    final List<PageInfo> pages = new ArrayList<>();
+    final List<Float> pageDpi = new ArrayList<>();
+    final List<String> pixelHashes = new ArrayList<>();
+    List<String> pageFingerprints;
+    final Map<Integer, String> imageResolutions = new HashMap<>();
+    /** Null for baselines registered before images were recorded. */
+    Map<Integer, List<ImageInfo>> images;
+    LineStore lines = new LineStore();
+
+    Baseline(String name, File directory) {
+        this.name = name;
+        this.directory = directory;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    @Override
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    @Override
+    public LineStore getLines() {
+        return lines;
+    }
+
+    @Override
+    public Map<Integer, String> getImageResolutions() {
+        return imageResolutions;
+    }
+
+    @Override
+    public Map<Integer, List<ImageInfo>> getImages() {
+        return images;
+    }
+
+    @Override
+    public List<PageInfo> getPages() {
+        return pages;
+    }
+
+    @Override
+    public List<String> getPageFingerprints() {
+        return pageFingerprints;
+    }
+
+    @Override
+    public float getDpi(int pageIndex) {
+        return pageIndex < pageDpi.size() ? pageDpi.get(pageIndex) : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Loads the stored raster. Baselines are always compared at the DPI they were registered with,
+     * see {@link #hasFixedDpi}; asking for another DPI fails rather than returning a raster of a
+     * different scale.
+     */
+    @Override
+    public BufferedImage render(int pageIndex, float dpi) throws IOException {
+        float registered = getDpi(pageIndex);
+        if (Math.abs(dpi - registered) > 0.01f) {
+            throw new IOException("Page " + (pageIndex + 1) + " of baseline " + name + " was registered at "
+                    + Math.round(registered) + " DPI and cannot be compared at " + Math.round(dpi) + " DPI");
+        }
+        BufferedImage image = ImageIO.read(rasterFile(directory, pageIndex + 1));
+        if (image == null) {
+            throw new IOException("Missing raster for page " + (pageIndex + 1) + " of baseline " + name);
+        }
+        return image;
+    }
+
+    @Override
+    public boolean hasFixedDpi() {
+        return true;
+    }
+
+    @Override
+    public String getPixelHash(int pageIndex) {
+        return pixelHashes.get(pageIndex);
+    }
+
+    /** Stored rasters are immutable files, so one instance can serve every render worker. */
+    @Override
+    public PageSource forWorker() {
+        return this;
+    }
+
+    static File rasterFile(File directory, int pageNumber) {
+        return new File(directory, "page-" + pageNumber + ".png");
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.service.DocumentAnalysis.ImageInfo;
+import com.example.pdfcomparator.service.DocumentAnalysis.PageInfo;
+import com.example.pdfcomparator.util.HashingSpooler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Registry of golden PDFs. Registering a baseline analyses and renders it once and stores the
+ * result as {@code baseline.bin} (gzip-compressed lines, page and image metadata, pixel hashes)
+ * next to one PNG raster per page, so later comparisons only process the actual document.
+ */
+@Service
+public class BaselineRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(BaselineRegistry.class);
+    private static final Pattern VALID_NAME = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]{0,99}");
+    private static final int FORMAT_VERSION = 5;
+    private static final String METADATA_FILE = "baseline.bin";
+
+    @Autowired
+    private DocumentAnalyzer documentAnalyzer;
+
+    @Autowired
+    private PixelComparator pixelComparator;
+
+    @Autowired
+    private ImageComparator imageComparator;
+
+    @Value("${pdfcompare.baselines.dir:${user.home}/.pdf-comparator/baselines}")
+    private String baselinesDir;
+
+    private final Map<String, Baseline> loaded = new ConcurrentHashMap<>();
+
+    /**
+     * Registers {@code pdf} as baseline {@code name}, replacing any previous baseline of that name.
+     *
+     * @return the stored baseline.
+     * @throws IllegalArgumentException if the name contains characters other than letters, digits, '.', '_' or '-'.
+     */
+    public Baseline register(String name, MultipartFile pdf) throws IOException {
+        checkName(name);
+        Path root = Files.createDirectories(Paths.get(baselinesDir));
+        Path staging = Files.createDirectory(root.resolve(name + ".tmp-" + UUID.randomUUID()));
+        Path target = root.resolve(name);
+
+        try {
+            File pdfFile = staging.resolve("baseline.pdf").toFile();
+            Baseline baseline = new Baseline(name, target.toFile());
+            baseline.sha256 = HashingSpooler.spool(pdf, pdfFile.toPath());
+
+            try (DocumentAnalysis analysis = documentAnalyzer.analyze(pdfFile);
+                 PageSource pages = pixelComparator.pages(analysis)) {
+                baseline.pages.addAll(analysis.getPages());
+                baseline.imageResolutions.putAll(analysis.getImageResolutions());
+                baseline.lines = analysis.getLines();
+                baseline.pageFingerprints = analysis.getPageFingerprints();
+                // the PDF is not kept open, so every image's difference hash is taken now
+                baseline.images = analysis.getImages();
+                for (List<ImageInfo> images : baseline.images.values()) {
+                    for (ImageInfo image : images) {
+                        imageComparator.perceptualHash(image);
+                        image.image = null;
+                    }
+                }
+                for (int i = 0; i < pages.getPageCount(); i++) {
+                    float dpi = pages.getDpi(i);
+                    BufferedImage raster = pages.render(i, dpi);
+                    ImageIO.write(raster, "png", Baseline.rasterFile(staging.toFile(), i + 1));
+                    baseline.pageDpi.add(dpi);
+                    baseline.pixelHashes.add(PixelComparator.pixelHash(raster));
+                }
+            }
+            write(baseline, staging.resolve(METADATA_FILE));
+
+            synchronized (this) {
+                loaded.remove(name);
+                deleteRecursively(target);
+                Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+                loaded.put(name, baseline);
+            }
+            log.info("Registered baseline {} ({} pages, {} lines)", name, baseline.getPageCount(), baseline.getLines().size());
+            return baseline;
+        } finally {
+            deleteRecursively(staging);
+        }
+    }
+
+    /** Returns the named baseline, loading it from disk on first use, or null if it is not registered. */
+    public Baseline get(String name) throws IOException {
+        checkName(name);
+        Baseline baseline = loaded.get(name);
+        if (baseline != null) return baseline;
+
+        synchronized (this) {
+            baseline = loaded.get(name);
+            if (baseline == null) {
+                Path dir = Paths.get(baselinesDir, name);
+                if (!Files.exists(dir.resolve(METADATA_FILE))) return null;
+                baseline = read(name, dir);
+                loaded.put(name, baseline);
+            }
+            return baseline;
+        }
+    }
+
+    public List<String> list() throws IOException {
+        Path root = Paths.get(baselinesDir);
+        List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(root)) return names;
+        try (Stream<Path> dirs = Files.list(root)) {
+            dirs.filter(dir -> Files.exists(dir.resolve(METADATA_FILE)))
+                .map(dir -> dir.getFileName().toString())
+                .sorted()
+                .forEach(names::add);
+        }
+        return names;
+    }
+
+    public synchronized boolean delete(String name) throws IOException {
+        checkName(name);
+        loaded.remove(name);
+        Path dir = Paths.get(baselinesDir, name);
+        if (!Files.exists(dir)) return false;
+        deleteRecursively(dir);
+        return true;
+    }
+
+    private void write(Baseline baseline, Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(file))))) {
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, baseline.sha256);
+
+            out.writeInt(baseline.pages.size());
+            for (int i = 0; i < baseline.pages.size(); i++) {
+                PageInfo page = baseline.pages.get(i);
+                out.writeFloat(page.width);
+                out.writeFloat(page.height);
+                out.writeInt(page.rotation);
+                out.writeFloat(baseline.pageDpi.get(i));
+                writeString(out, baseline.pixelHashes.get(i));
+                writeString(out, baseline.imageResolutions.getOrDefault(page.pageNumber, "-"));
+                out.writeInt(page.fontNames.size());
+                for (String font : page.fontNames) writeString(out, font);
+                writeString(out, baseline.pageFingerprints != null ? baseline.pageFingerprints.get(i) : null);
+
+                List<ImageInfo> images = baseline.images.getOrDefault(page.pageNumber, List.of());
+                out.writeInt(images.size());
+                for (ImageInfo image : images) {
+                    writeString(out, image.name);
+                    out.writeInt(image.width);
+                    out.writeInt(image.height);
+                    writeString(out, image.streamHash);
+                    out.writeBoolean(image.perceptualHash != null);
+                    out.writeLong(image.perceptualHash != null ? image.perceptualHash : 0);
+                }
+            }
+
+            LineStore lines = baseline.lines;
+            out.writeInt(lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                out.writeInt(lines.page(i));
+                writeString(out, lines.textString(i));
+                writeString(out, lines.fontName(i));
+                out.writeInt(lines.fontSizeTenths(i));
+                out.writeFloat(lines.left(i));
+                out.writeFloat(lines.top(i));
+                out.writeFloat(lines.right(i));
+                out.writeFloat(lines.bottom(i));
+            }
+        }
+    }
+
+    private Baseline read(String name, Path dir) throws IOException {
+        Baseline baseline = new Baseline(name, dir.toFile());
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(dir.resolve(METADATA_FILE)))))) {
+            int version = in.readInt();
+            if (version < 1 || version > FORMAT_VERSION) {
+                throw new IOException("Unsupported baseline format " + version + " for " + name + "; register it again");
+            }
+            baseline.sha256 = readString(in);
+
+            int pageCount = in.readInt();
+            List<String> fingerprints = new ArrayList<>(pageCount);
+            // before version 5 images were not recorded and are judged by resolution only
+            if (version >= 5) baseline.images = new HashMap<>();
+            for (int i = 0; i < pageCount; i++) {
+                PageInfo page = new PageInfo();
+                page.pageNumber = i + 1;
+                page.width = in.readFloat();
+                page.height = in.readFloat();
+                page.rotation = in.readInt();
+                baseline.pageDpi.add(in.readFloat());
+                baseline.pixelHashes.add(readString(in));
+                baseline.imageResolutions.put(page.pageNumber, readString(in));
+                int fonts = in.readInt();
+                for (int f = 0; f < fonts; f++) page.fontNames.add(readString(in));
+                // version 1 predates page fingerprints
+                fingerprints.add(version >= 2 ? readString(in) : null);
+                baseline.pages.add(page);
+
+                if (version >= 5) {
+                    int imageCount = in.readInt();
+                    List<ImageInfo> images = new ArrayList<>(imageCount);
+                    for (int k = 0; k < imageCount; k++) {
+                        ImageInfo image = new ImageInfo();
+                        image.name = readString(in);
+                        image.width = in.readInt();
+                        image.height = in.readInt();
+                        image.streamHash = readString(in);
+                        boolean hasHash = in.readBoolean();
+                        long hash = in.readLong();
+                        image.perceptualHash = hasHash ? hash : null;
+                        images.add(image);
+                    }
+                    baseline.images.put(page.pageNumber, images);
+                }
+            }
+            if (!fingerprints.contains(null)) {
+                baseline.pageFingerprints = fingerprints;
+            }
+
+            int lineCount = in.readInt();
+            for (int i = 0; i < lineCount; i++) {
+                int page = in.readInt();
+                String text = readString(in);
+                String font = readString(in);
+                // versions 1 and 2 stored the formatted size, e.g. "11.0pt"
+                int fontSize = version >= 3 ? in.readInt() : LineStore.parseFontSize(readString(in));
+                // before version 4 line positions were not stored, so region exclusions keep those lines
+                if (version >= 4) {
+                    baseline.lines.add(page, text, font, fontSize, in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+                } else {
+                    baseline.lines.add(page, text, font, fontSize);
+                }
+            }
+        }
+        return baseline;
+    }
+
+    /** Length-prefixed UTF-8; unlike writeUTF this has no 64 KB limit and keeps nulls. */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void checkName(String name) {
+        if (name == null || !VALID_NAME.matcher(name).matches() || name.contains(".tmp-")) {
+            throw new IllegalArgumentException("Invalid baseline name: " + name);
+        }
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) return;
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.service.BatchJob.Pair;
+import com.example.pdfcomparator.service.PdfService.ComparisonOutcome;
+import com.example.pdfcomparator.util.CsvReportExporter;
+import com.example.pdfcomparator.util.ExclusionHelper.Exclusions;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares many PDF pairs at once, e.g. the folders of two release candidates. Pairs run as
+ * tasks on the render pool of {@link PixelComparator}, a work-stealing pool sized to the
+ * machine, and fork their page ranges into that same pool, so workers that run out of pairs
+ * steal pages of the ones still running instead of leaving one large document as the long tail.
+ * The largest pairs are started first for the same reason.
+ */
+@Service
+public class BatchComparisonService {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchComparisonService.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Autowired
+    private PdfService pdfService;
+
+    @Autowired
+    private PixelComparator pixelComparator;
+
+    @Autowired
+    private ExclusionSetRegistry exclusionSetRegistry;
+
+    @Autowired
+    private MemoryAdmission memoryAdmission;
+
+    @Autowired
+    private WorkspaceManager workspaceManager;
+
+    @Autowired
+    private HistoryStore historyStore;
+
+    @Value("${pdfcompare.batch.roots:${user.home}}")
+    private String[] roots;
+
+    @Value("${pdfcompare.jobs.retention-minutes:60}")
+    private long retentionMinutes;
+
+    private final List<Path> rootPaths = new ArrayList<>();
+    private final Map<String, BatchJob> batches = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void resolveRoots() {
+        for (String root : roots) {
+            if (!root.isBlank()) rootPaths.add(Paths.get(root.trim()).toAbsolutePath().normalize());
+        }
+    }
+
+    /**
+     * Pairs the PDFs of two directories, including subdirectories, by relative path ignoring
+     * case. A file without counterpart becomes a pair with one side missing, reported as not
+     * compared.
+     *
+     * @throws IllegalArgumentException if either path is not a directory.
+     */
+    public List<Pair> pairDirectories(String expectedDir, String actualDir) throws IOException {
+        Map<String, Path> expected = pdfsByName(directory(expectedDir));
+        Map<String, Path> actual = pdfsByName(directory(actualDir));
+        Map<String, Pair> pairs = new TreeMap<>();
+        for (Map.Entry<String, Path> entry : expected.entrySet()) {
+            Path other = actual.get(entry.getKey());
+            pairs.put(entry.getKey(), new Pair(displayName(directory(expectedDir), entry.getValue()),
+                    entry.getValue().toFile(), other != null ? other.toFile() : null));
+        }
+        for (Map.Entry<String, Path> entry : actual.entrySet()) {
+            if (!expected.containsKey(entry.getKey())) {
+                pairs.put(entry.getKey(), new Pair(displayName(directory(actualDir), entry.getValue()), null, entry.getValue().toFile()));
+            }
+        }
+        return new ArrayList<>(pairs.values());
+    }
+
+    /**
+     * Reads a manifest listing the pairs explicitly:
+     * <pre>
+     * {"pairs": [{"name": "invoice", "expected": "rc1/invoice.pdf", "actual": "rc2/invoice.pdf"}]}
+     * </pre>
+     * The name is optional; relative paths are resolved against {@code baseDir}.
+     *
+     * @throws IllegalArgumentException if the manifest is malformed.
+     */
+    public List<Pair> readManifest(String json, Path baseDir) {
+        JsonNode root;
+        try {
+            root = MAPPER.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Malformed batch manifest: " + e.getOriginalMessage());
+        }
+        return readManifest(root, baseDir);
+    }
+
+    /** Like {@link #readManifest(String, Path)} for an already parsed manifest. */
+    public List<Pair> readManifest(JsonNode root, Path baseDir) {
+        JsonNode entries = root.isArray() ? root : root.path("pairs");
+        if (!entries.isArray() || entries.isEmpty()) {
+            throw new IllegalArgumentException("Batch manifest needs a non-empty \"pairs\" array");
+        }
+        List<Pair> pairs = new ArrayList<>();
+        for (JsonNode entry : entries) {
+            if (!entry.path("expected").isTextual() || !entry.path("actual").isTextual()) {
+                throw new IllegalArgumentException("Batch pair needs \"expected\" and \"actual\" paths: " + entry);
+            }
+            File expected = baseDir.resolve(entry.get("expected").asText()).toFile();
+            File actual = baseDir.resolve(entry.get("actual").asText()).toFile();
+            String name = entry.hasNonNull("name") ? entry.get("name").asText() : expected.getName();
+            pairs.add(new Pair(name, expected.isFile() ? expected : null, actual.isFile() ? actual : null));
+        }
+        return pairs;
+    }
+
+    /**
+     * Checks that every file of {@code pairs} lies under {@code pdfcompare.batch.roots}; used for
+     * batches submitted over HTTP, which name files on this machine.
+     *
+     * @throws IllegalArgumentException for the first file outside the roots.
+     */
+    public void checkWithinRoots(List<Pair> pairs) throws IOException {
+        for (Pair pair : pairs) {
+            for (File file : new File[]{pair.expectedFile(), pair.actualFile()}) {
+                if (file != null && !withinRoots(file.toPath().toRealPath())) {
+                    throw new IllegalArgumentException("Not under a batch input directory: " + file);
+                }
+            }
+        }
+    }
+
+    private boolean withinRoots(Path file) throws IOException {
+        for (Path root : rootPaths) {
+            Path realRoot = Files.exists(root) ? root.toRealPath() : root;
+            if (file.startsWith(realRoot)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Starts comparing {@code pairs} and returns at once with the batch.
+     *
+     * @throws IllegalArgumentException if there are no pairs or the exclusions are invalid.
+     */
+    public BatchJob submit(List<Pair> pairs, String exclusionsJson) throws IOException {
+        if (pairs.isEmpty()) throw new IllegalArgumentException("The batch has no PDF pairs");
+        Exclusions exclusions = exclusionSetRegistry.resolve(exclusionsJson);
+        evictFinishedBatches();
+        BatchJob batch = new BatchJob(pairs);
+        batches.put(batch.getId(), batch);
+        log.info("Batch {} started with {} pairs", batch.getId(), pairs.size());
+
+        List<Pair> bySize = pairs.stream().sorted(Comparator.comparingLong(Pair::size).reversed()).collect(Collectors.toList());
+        for (Pair pair : bySize) {
+            pixelComparator.pool().execute(() -> run(batch, pair, exclusions));
+        }
+        return batch;
+    }
+
+    public BatchJob get(String id) {
+        return batches.get(id);
+    }
+
+    public BatchJob cancel(String id) {
+        BatchJob batch = batches.get(id);
+        if (batch != null && !batch.isFinished()) batch.cancel();
+        return batch;
+    }
+
+    private void run(BatchJob batch, Pair pair, Exclusions exclusions) {
+        ComparisonJob job = pair.job;
+        LineDifferences differences = null;
+        long started = System.nanoTime();
+        try {
+            if (pair.expectedFile() == null || pair.actualFile() == null) {
+                job.failed(pair.expectedFile() == null ? "No expected PDF for this name" : "No actual PDF for this name");
+            } else if (job.isCancelled()) {
+                job.cancelled();
+            } else {
+                job.running();
+                ComparisonOutcome outcome;
+                // pairs never wait for memory, the pool bounds how many run, but comparisons submitted meanwhile see their share
+                try (MemoryAdmission.Reservation memory =
+                             memoryAdmission.hold(memoryAdmission.estimate(pair.expectedFile(), pair.actualFile()))) {
+                    job.onLoaded(memory::adjust);
+                    outcome = pdfService.comparePDFs(pair.expectedFile(), pair.actualFile(), exclusions, job,
+                            workspaceManager.createOutputDirectory(job.getId()));
+                }
+                differences = outcome.differences;
+                pair.differences = differences != null ? differences.size() : 0;
+                // the rows stay in the pair's CSV; holding them for hundreds of pairs would fill the heap
+                outcome.differences = null;
+                job.completed(outcome);
+            }
+        } catch (CancellationException e) {
+            job.cancelled();
+        } catch (Exception e) {
+            if (job.isCancelled()) {
+                job.cancelled();
+            } else {
+                log.error("Batch {} pair {} failed", batch.getId(), pair.getName(), e);
+                job.failed(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            }
+        } finally {
+            pair.millis = (System.nanoTime() - started) / 1_000_000;
+            historyStore.record(job, "batch", differences);
+            log.info("Batch {} [{}/{}] {}: {}", batch.getId(), batch.getPairsDone() + 1, batch.getPairsTotal(), pair.getName(),
+                    pair.getPassed() != null ? (pair.getPassed() ? "passed" : pair.differences + " differences") : job.getStatus());
+            if (batch.pairFinished()) finish(batch);
+        }
+    }
+
+    private void finish(BatchJob batch) {
+        String summaryPath = null, error = null;
+        try {
+            summaryPath = CsvReportExporter.exportBatchSummaryToCsv(batch, workspaceManager.createBatchDirectory(batch.getId()).getPath());
+        } catch (IOException e) {
+            log.error("Cannot write summary of batch {}", batch.getId(), e);
+            error = "Cannot write summary: " + e.getMessage();
+        }
+        batch.finished(summaryPath, error);
+        log.info("Batch {} finished: {}; summary {}", batch.getId(), batch.getProgress(), summaryPath);
+    }
+
+    private static Path directory(String path) {
+        if (path == null || path.isBlank()) throw new IllegalArgumentException("A batch needs both directories");
+        Path directory = Paths.get(path).toAbsolutePath().normalize();
+        if (!Files.isDirectory(directory)) throw new IllegalArgumentException("Not a directory: " + path);
+        return directory;
+    }
+
+    private static Map<String, Path> pdfsByName(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".pdf"))
+                    .collect(Collectors.toMap(file -> displayName(directory, file).toLowerCase(Locale.ROOT), file -> file,
+                            (first, second) -> first, TreeMap::new));
+        }
+    }
+
+    private static String displayName(Path directory, Path file) {
+        return directory.relativize(file).toString().replace('\\', '/');
+    }
+
+    private void evictFinishedBatches() {
+        Instant cutoff = Instant.now().minus(Duration.ofMinutes(retentionMinutes));
+        batches.values().removeIf(batch -> batch.isFinished() && batch.getFinishedAt().isBefore(cutoff));
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.service.PdfService.ComparisonOutcome;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A batch of PDF pairs compared together, and the aggregated progress clients poll for. Each
+ * pair keeps its own {@link ComparisonJob} for stage progress and result.
+ */
+public class BatchJob {
+
+    public enum Status { RUNNING, COMPLETED, CANCELLED }
+
+    public static class Pair {
+        private final String name;
+        private final File expected;
+        private final File actual;
+        final ComparisonJob job = new ComparisonJob(UUID.randomUUID().toString());
+        volatile int differences = -1;
+        volatile long millis = -1;
+
+        /** Either file may be null when it has no counterpart. */
+        public Pair(String name, File expected, File actual) {
+            this.name = name;
+            this.expected = expected;
+            this.actual = actual;
+            job.describe(name, name, null, null);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getExpected() {
+            return expected != null ? expected.getPath() : null;
+        }
+
+        public String getActual() {
+            return actual != null ? actual.getPath() : null;
+        }
+
+        @JsonIgnore
+        File expectedFile() {
+            return expected;
+        }
+
+        @JsonIgnore
+        File actualFile() {
+            return actual;
+        }
+
+        /** Combined size of both files; larger pairs are scheduled first. */
+        @JsonIgnore
+        long size() {
+            return (expected != null ? expected.length() : 0) + (actual != null ? actual.length() : 0);
+        }
+
+        public ComparisonJob.Status getStatus() {
+            return job.getStatus();
+        }
+
+        public String getProgress() {
+            return job.getProgress();
+        }
+
+        /** Null until the pair is compared. */
+        public Boolean getPassed() {
+            ComparisonOutcome result = job.getResult();
+            return result != null ? result.passed : null;
+        }
+
+        /** Rows of line differences, or -1 until the pair is compared. */
+        public int getDifferences() {
+            return differences;
+        }
+
+        public String getReportPath() {
+            ComparisonOutcome result = job.getResult();
+            return result != null ? result.reportPath : null;
+        }
+
+        public String getCsvPath() {
+            ComparisonOutcome result = job.getResult();
+            return result != null ? result.csvPath : null;
+        }
+
+        public String getError() {
+            return job.getError();
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final Instant createdAt = Instant.now();
+    private final List<Pair> pairs;
+    private final AtomicInteger remaining;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Instant finishedAt;
+    private volatile boolean cancelRequested;
+    private volatile String summaryPath;
+    private volatile String error;
+
+    BatchJob(List<Pair> pairs) {
+        this.pairs = pairs;
+        this.remaining = new AtomicInteger(pairs.size());
+    }
+
+    /** Counts a pair as finished; returns true for the last one. */
+    boolean pairFinished() {
+        return remaining.decrementAndGet() == 0;
+    }
+
+    void finished(String summaryPath, String error) {
+        this.summaryPath = summaryPath;
+        this.error = error;
+        finishedAt = Instant.now();
+        done.countDown();
+    }
+
+    /** Stops the batch: pairs not yet started are skipped, running ones stop at their next page or stage boundary. */
+    public void cancel() {
+        cancelRequested = true;
+        for (Pair pair : pairs) {
+            if (!pair.job.isFinished()) pair.job.cancel();
+        }
+    }
+
+    /** Waits for the batch to finish; returns false if it is still running after {@code timeout}. */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        if (finishedAt == null) return Status.RUNNING;
+        return cancelRequested ? Status.CANCELLED : Status.COMPLETED;
+    }
+
+    public boolean isFinished() {
+        return finishedAt != null;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public int getPairsTotal() {
+        return pairs.size();
+    }
+
+    public int getPairsDone() {
+        return pairs.size() - Math.max(0, remaining.get());
+    }
+
+    /** Pairs compared without differences. */
+    public int getPassed() {
+        return (int) pairs.stream().filter(pair -> Boolean.TRUE.equals(pair.getPassed())).count();
+    }
+
+    /** Pairs compared with differences. */
+    public int getFailed() {
+        return (int) pairs.stream().filter(pair -> Boolean.FALSE.equals(pair.getPassed())).count();
+    }
+
+    /** Pairs that could not be compared: a file without counterpart, an error, or cancellation. */
+    public int getErrors() {
+        return (int) pairs.stream()
+                .filter(pair -> pair.job.isFinished() && pair.getStatus() != ComparisonJob.Status.COMPLETED)
+                .count();
+    }
+
+    public String getProgress() {
+        return getPairsDone() + " of " + pairs.size() + " pairs compared, " + getFailed() + " with differences, "
+                + getErrors() + " not compared";
+    }
+
+    /** CSV with one row per pair, written when the batch finishes. */
+    public String getSummaryPath() {
+        return summaryPath;
+    }
+
+    /** Why the summary could not be written, if it could not. */
+    public String getError() {
+        return error;
+    }
+
+    public List<Pair> getPairs() {
+        return pairs;
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.service.PdfService.ComparisonOutcome;
+import com.example.pdfcomparator.util.AllocationMeter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * One asynchronous comparison and the progress clients poll for. Also keeps the wall time and
+ * allocation of every stage; allocation is measured on the job's thread, so work a stage hands
+ * to the render pool is included in its time but not in its bytes.
+ */
+public class ComparisonJob implements ComparisonProgress {
+
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED }
+
+    public static class StageTiming {
+        public long millis;
+        /** Bytes allocated by the job thread during the stage, or -1 if unknown. */
+        public long allocatedBytes;
+        @JsonIgnore
+        public long nanos;
+    }
+
+    private final String id;
+    private final Instant createdAt = Instant.now();
+    private volatile Instant finishedAt;
+    private volatile Status status = Status.QUEUED;
+    private volatile String stage = "queued";
+    private volatile int stepsTotal;
+    private final AtomicInteger stepsDone = new AtomicInteger();
+    private volatile ComparisonOutcome result;
+    private volatile String error;
+    private volatile boolean cancelRequested;
+    private volatile Future<?> future;
+    private volatile Consumer<PageVerdict> listener;
+    private volatile BiConsumer<AnalyzedDocument, DocumentAnalysis> onLoaded;
+    private int maxRowsPerPage;
+    private boolean failFast;
+    private volatile int stoppedAtPage;
+    private volatile String expectedDocument, actualDocument;
+    private volatile String expectedSha256, actualSha256;
+
+    private final Map<String, StageTiming> timings = new LinkedHashMap<>();
+    private final Map<String, Long> counts = new ConcurrentHashMap<>();
+    private String openStage;
+    private long openStageNanos;
+    private long openStageAllocated;
+
+    public ComparisonJob(String id) {
+        this.id = id;
+    }
+
+    @Override
+    public void stage(String stage, int totalSteps) {
+        startTiming(stage);
+        this.stage = stage;
+        this.stepsTotal = totalSteps;
+        this.stepsDone.set(0);
+    }
+
+    @Override
+    public void advance() {
+        stepsDone.incrementAndGet();
+    }
+
+    @Override
+    public void count(String counter, long amount) {
+        counts.merge(counter, amount, Long::sum);
+    }
+
+    /** Closes the running stage's timing; it must be called on the thread that started the stage. */
+    public synchronized void endStage() {
+        if (openStage == null) return;
+        long allocated = AllocationMeter.currentThreadAllocatedBytes();
+        StageTiming timing = timings.computeIfAbsent(openStage, name -> new StageTiming());
+        timing.nanos += System.nanoTime() - openStageNanos;
+        timing.millis = timing.nanos / 1_000_000;
+        timing.allocatedBytes = allocated < 0 || openStageAllocated < 0 || timing.allocatedBytes < 0
+                ? -1 : timing.allocatedBytes + (allocated - openStageAllocated);
+        openStage = null;
+    }
+
+    private synchronized void startTiming(String stage) {
+        endStage();
+        openStage = stage;
+        openStageNanos = System.nanoTime();
+        openStageAllocated = AllocationMeter.currentThreadAllocatedBytes();
+    }
+
+    /**
+     * Sends page verdicts to {@code listener} as pages are compared, with at most
+     * {@code maxRowsPerPage} differences each. With {@code failFast} the comparison stops at the
+     * first differing page and completes as failed, without report.
+     */
+    void streamTo(Consumer<PageVerdict> listener, int maxRowsPerPage, boolean failFast) {
+        this.listener = listener;
+        this.maxRowsPerPage = maxRowsPerPage;
+        this.failFast = failFast;
+    }
+
+    /** Runs {@code action}, e.g. correcting a memory reservation, once both documents are loaded. */
+    void onLoaded(BiConsumer<AnalyzedDocument, DocumentAnalysis> action) {
+        this.onLoaded = action;
+    }
+
+    @Override
+    public void loaded(AnalyzedDocument expected, DocumentAnalysis actual) {
+        BiConsumer<AnalyzedDocument, DocumentAnalysis> action = onLoaded;
+        if (action != null) action.accept(expected, actual);
+    }
+
+    @Override
+    public void pageSkipped(int page, String reason) {
+        Consumer<PageVerdict> target = listener;
+        if (target != null) target.accept(PageVerdict.skipped(page, reason));
+    }
+
+    @Override
+    public void pixelsDiffer(int page) {
+        Consumer<PageVerdict> target = listener;
+        if (target != null) target.accept(PageVerdict.pixelsDiffer(page));
+        mismatch(page);
+    }
+
+    @Override
+    public void pageCompared(int page, LineDifferences differences, int fromRow, int toRow) {
+        Consumer<PageVerdict> target = listener;
+        if (target != null) target.accept(PageVerdict.compared(page, differences, fromRow, toRow, maxRowsPerPage));
+        if (toRow > fromRow) mismatch(page);
+    }
+
+    private synchronized void mismatch(int page) {
+        if (failFast && stoppedAtPage == 0) stoppedAtPage = page;
+    }
+
+    /** The first differing page when fail-fast stopped the comparison there, otherwise 0. */
+    @JsonIgnore
+    public int getStoppedAtPage() {
+        return stoppedAtPage;
+    }
+
+    @Override
+    @JsonIgnore
+    public boolean isCancelled() {
+        return cancelRequested || stoppedAtPage > 0 || Thread.currentThread().isInterrupted();
+    }
+
+    public void cancel() {
+        cancelRequested = true;
+        Future<?> running = future;
+        if (running != null && running.cancel(true) && status == Status.QUEUED) {
+            // never started, so run() will not get to record the cancellation
+            cancelled();
+        }
+    }
+
+    /** Names the compared documents, for the history; the hashes are null where the content was not hashed. */
+    void describe(String expectedDocument, String actualDocument, String expectedSha256, String actualSha256) {
+        this.expectedDocument = expectedDocument;
+        this.actualDocument = actualDocument;
+        this.expectedSha256 = expectedSha256;
+        this.actualSha256 = actualSha256;
+    }
+
+    void attach(Future<?> future) {
+        this.future = future;
+    }
+
+    void running() {
+        status = Status.RUNNING;
+    }
+
+    void completed(ComparisonOutcome outcome) {
+        result = outcome;
+        finish(Status.COMPLETED, "done");
+    }
+
+    void failed(String message) {
+        error = message;
+        finish(Status.FAILED, stage);
+    }
+
+    void cancelled() {
+        finish(Status.CANCELLED, stage);
+    }
+
+    private void finish(Status finalStatus, String finalStage) {
+        endStage();
+        stage = finalStage;
+        finishedAt = Instant.now();
+        status = finalStatus;
+    }
+
+    public boolean isFinished() {
+        return finishedAt != null;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public int getStepsDone() {
+        return stepsDone.get();
+    }
+
+    public int getStepsTotal() {
+        return stepsTotal;
+    }
+
+    /** Human-readable progress line, e.g. "rendering page 12 of 300". */
+    public String getProgress() {
+        int total = stepsTotal;
+        if (total <= 0 || isFinished()) return stage;
+        return stage + " " + Math.min(stepsDone.get() + 1, total) + " of " + total;
+    }
+
+    public ComparisonOutcome getResult() {
+        return result;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public String getExpectedDocument() {
+        return expectedDocument;
+    }
+
+    public String getActualDocument() {
+        return actualDocument;
+    }
+
+    @JsonIgnore
+    public String getExpectedSha256() {
+        return expectedSha256;
+    }
+
+    @JsonIgnore
+    public String getActualSha256() {
+        return actualSha256;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    /** Completed stages in the order they ran; a stage still running is not included. */
+    public synchronized Map<String, StageTiming> getTimings() {
+        return new LinkedHashMap<>(timings);
+    }
+
+    public Map<String, Long> getCounts() {
+        return new TreeMap<>(counts);
+    }
+}
@@ -0,0 +1,299 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.service.PdfService.ComparisonOutcome;
+import com.example.pdfcomparator.util.ExclusionHelper.Exclusions;
+import com.example.pdfcomparator.util.HashingSpooler;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+@Service
+public class ComparisonJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(ComparisonJobService.class);
+
+    @Autowired
+    private PdfService pdfService;
+
+    @Autowired
+    private ResultCache resultCache;
+
+    @Autowired
+    private BaselineRegistry baselineRegistry;
+
+    @Autowired
+    private ExclusionSetRegistry exclusionSetRegistry;
+
+    @Autowired
+    @Qualifier("comparisonExecutor")
+    private ExecutorService executor;
+
+    @Value("${pdfcompare.jobs.retention-minutes:60}")
+    private long retentionMinutes;
+
+    @Value("${pdfcompare.stream.max-rows-per-page:100}")
+    private int streamMaxRowsPerPage;
+
+    @Autowired
+    private ComparisonMetrics comparisonMetrics;
+
+    @Autowired
+    private MemoryAdmission memoryAdmission;
+
+    @Autowired
+    private WorkspaceManager workspaceManager;
+
+    @Autowired
+    private HistoryStore historyStore;
+
+    private final Map<String, ComparisonJob> jobs = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void registerGauges() {
+        for (ComparisonJob.Status status : new ComparisonJob.Status[]{ComparisonJob.Status.QUEUED, ComparisonJob.Status.RUNNING}) {
+            comparisonMetrics.gauge("pdfcompare.jobs.inflight", "status", status.name().toLowerCase(),
+                    () -> jobs.values().stream().filter(job -> job.getStatus() == status).count());
+        }
+    }
+
+    /** One pipeline invocation, run on the job executor once the inputs are spooled. */
+    private interface Comparison {
+        ComparisonOutcome run(ComparisonProgress progress) throws IOException;
+    }
+
+    /** Estimated heap use of a comparison, see {@link MemoryAdmission}. */
+    private interface MemoryEstimate {
+        long bytes();
+    }
+
+    /**
+     * Moves both uploads into the job's input directory on the request thread (the multipart parts
+     * are gone once the request completes) and hashes them, then queues the comparison once
+     * {@link MemoryAdmission} has room for it; the reservation is corrected from the page trees
+     * once the job has loaded both documents. A result cache hit completes the job immediately.
+     * Returns with the new job without waiting for the comparison.
+     *
+     * @throws IllegalArgumentException if the exclusions are invalid or name an unknown set.
+     * @throws AdmissionRejectedException if the server has no memory for the comparison within the wait limit.
+     */
+    public ComparisonJob submit(MultipartFile file1, MultipartFile file2, String exclusionsJson) throws IOException {
+        return submit(file1, file2, exclusionsJson, null, false);
+    }
+
+    /**
+     * Like {@link #submit(MultipartFile, MultipartFile, String)}, sending page verdicts to
+     * {@code listener} as the comparison goes; see {@link ComparisonJob#streamTo}.
+     */
+    public ComparisonJob submit(MultipartFile file1, MultipartFile file2, String exclusionsJson,
+                                Consumer<PageVerdict> listener, boolean failFast) throws IOException {
+        Exclusions exclusions = exclusionSetRegistry.resolve(exclusionsJson);
+        ComparisonJob job = newJob(listener, failFast);
+        job.stage("spooling", 0);
+        File inputs = workspaceManager.createInputDirectory(job.getId());
+        File expectedFile = new File(inputs, "expected.pdf");
+        File actualFile = new File(inputs, "actual.pdf");
+        String cacheKey;
+        try {
+            String expectedSha256 = HashingSpooler.spool(file1, expectedFile.toPath());
+            String actualSha256 = HashingSpooler.spool(file2, actualFile.toPath());
+            job.describe(file1.getOriginalFilename(), file2.getOriginalFilename(), expectedSha256, actualSha256);
+            cacheKey = resultCache.key(expectedSha256, actualSha256, exclusions.key());
+        } catch (IOException | RuntimeException e) {
+            workspaceManager.delete(inputs);
+            throw e;
+        }
+        job.endStage();
+
+        return start(job, cacheKey, () -> memoryAdmission.estimate(expectedFile, actualFile),
+                progress -> pdfService.comparePDFs(expectedFile, actualFile, exclusions, progress,
+                        workspaceManager.createOutputDirectory(job.getId())),
+                inputs);
+    }
+
+    /**
+     * Like {@link #submit} but takes the expected side from a registered baseline, so only the
+     * actual upload is spooled and processed.
+     *
+     * @throws IllegalArgumentException if no baseline of that name is registered or the exclusions are invalid.
+     * @throws AdmissionRejectedException if the server has no memory for the comparison within the wait limit.
+     */
+    public ComparisonJob submitAgainstBaseline(String baselineName, MultipartFile file2, String exclusionsJson) throws IOException {
+        return submitAgainstBaseline(baselineName, file2, exclusionsJson, null, false);
+    }
+
+    /** Like {@link #submitAgainstBaseline(String, MultipartFile, String)}, streaming page verdicts to {@code listener}. */
+    public ComparisonJob submitAgainstBaseline(String baselineName, MultipartFile file2, String exclusionsJson,
+                                               Consumer<PageVerdict> listener, boolean failFast) throws IOException {
+        Baseline baseline = baselineRegistry.get(baselineName);
+        if (baseline == null) {
+            throw new IllegalArgumentException("Unknown baseline: " + baselineName);
+        }
+        Exclusions exclusions = exclusionSetRegistry.resolve(exclusionsJson);
+        ComparisonJob job = newJob(listener, failFast);
+        job.stage("spooling", 0);
+        File inputs = workspaceManager.createInputDirectory(job.getId());
+        File actualFile = new File(inputs, "actual.pdf");
+        String cacheKey;
+        try {
+            String actualSha256 = HashingSpooler.spool(file2, actualFile.toPath());
+            job.describe(baseline.getName(), file2.getOriginalFilename(), baseline.getSha256(), actualSha256);
+            cacheKey = resultCache.key(baseline.getSha256(), actualSha256, exclusions.key());
+        } catch (IOException | RuntimeException e) {
+            workspaceManager.delete(inputs);
+            throw e;
+        }
+        job.endStage();
+
+        return start(job, cacheKey, () -> memoryAdmission.estimate(baseline, actualFile),
+                progress -> pdfService.compareAgainstBaseline(baseline, actualFile, exclusions, progress,
+                        workspaceManager.createOutputDirectory(job.getId())),
+                inputs);
+    }
+
+    private ComparisonJob newJob(Consumer<PageVerdict> listener, boolean failFast) {
+        ComparisonJob job = new ComparisonJob(UUID.randomUUID().toString());
+        if (listener != null) job.streamTo(listener, streamMaxRowsPerPage, failFast);
+        return job;
+    }
+
+    /** Runs {@code comparison} once admitted; {@code inputs}, the spooled uploads, is deleted when the job is done with it. */
+    private ComparisonJob start(ComparisonJob job, String cacheKey, MemoryEstimate estimate, Comparison comparison,
+                                File inputs) {
+        evictFinishedJobs();
+        ComparisonOutcome cached = resultCache.get(cacheKey);
+        if (cached != null) {
+            jobs.put(job.getId(), job);
+            log.info("Comparison job {} served from result cache {}", job.getId(), cacheKey);
+            job.completed(cached);
+            comparisonMetrics.recordCacheHit();
+            historyStore.recordCacheHit(job);
+            workspaceManager.delete(inputs);
+            return job;
+        }
+
+        // admitted before either document is parsed, so a burst is turned away before it fills the heap
+        MemoryAdmission.Reservation memory;
+        job.stage("admission", 0);
+        try {
+            memory = memoryAdmission.admit(estimate.bytes());
+        } catch (AdmissionRejectedException e) {
+            workspaceManager.delete(inputs);
+            throw e;
+        }
+        job.endStage();
+        job.onLoaded(memory::adjust);
+        jobs.put(job.getId(), job);
+
+        AtomicBoolean started = new AtomicBoolean();
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            started.set(true);
+            try {
+                run(job, comparison, cacheKey);
+            } finally {
+                memory.close();
+                workspaceManager.delete(inputs);
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                // cancelled while still queued on the executor, so the task body never releases them
+                if (!started.get()) {
+                    memory.close();
+                    workspaceManager.delete(inputs);
+                }
+            }
+        };
+        job.attach(task);
+        executor.execute(task);
+        return job;
+    }
+
+    public ComparisonJob get(String id) {
+        return jobs.get(id);
+    }
+
+    /** Queued and running jobs, oldest first. */
+    public List<ComparisonJob> inFlight() {
+        return jobs.values().stream()
+                .filter(job -> !job.isFinished())
+                .sorted(Comparator.comparing(ComparisonJob::getCreatedAt))
+                .collect(Collectors.toList());
+    }
+
+    /** Requests cancellation; the pipeline stops at its next page or stage boundary. */
+    public ComparisonJob cancel(String id) {
+        ComparisonJob job = jobs.get(id);
+        if (job != null && !job.isFinished()) {
+            job.cancel();
+        }
+        return job;
+    }
+
+    private void run(ComparisonJob job, Comparison comparison, String cacheKey) {
+        if (job.isCancelled()) {
+            job.cancelled();
+            return;
+        }
+        job.running();
+        try {
+            runComparison(job, comparison, cacheKey);
+        } finally {
+            comparisonMetrics.recordFinished(job);
+            ComparisonOutcome outcome = job.getResult();
+            historyStore.record(job, "job", outcome != null ? outcome.differences : null);
+        }
+    }
+
+    private void runComparison(ComparisonJob job, Comparison comparison, String cacheKey) {
+        try {
+            ComparisonOutcome outcome = comparison.run(job);
+            resultCache.put(cacheKey, outcome);
+            job.completed(outcome);
+        } catch (CancellationException e) {
+            stopped(job);
+        } catch (Exception e) {
+            if (job.isCancelled()) {
+                stopped(job);
+            } else {
+                log.error("Comparison job {} failed", job.getId(), e);
+                job.failed(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            }
+        }
+    }
+
+    /** A job stopped by fail-fast at a differing page has failed the comparison, not been cancelled. */
+    private void stopped(ComparisonJob job) {
+        if (job.getStoppedAtPage() > 0) {
+            log.info("Comparison job {} stopped at the first difference on page {}", job.getId(), job.getStoppedAtPage());
+            job.completed(PdfService.stoppedAt(job.getStoppedAtPage()));
+        } else {
+            job.cancelled();
+        }
+    }
+
+    private void evictFinishedJobs() {
+        Instant cutoff = Instant.now().minus(Duration.ofMinutes(retentionMinutes));
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(cutoff));
+    }
+}
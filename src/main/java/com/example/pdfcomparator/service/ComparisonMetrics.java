@@ -0,0 +1,87 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.service.ComparisonJob.StageTiming;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Publishes finished comparison jobs to Micrometer and writes one structured timing line per
+ * job. Meters:
+ * <ul>
+ *   <li>{@code pdfcompare.stage.duration} timer and {@code pdfcompare.stage.allocated} summary (bytes), tagged by stage</li>
+ *   <li>{@code pdfcompare.comparison.duration} timer tagged by final status</li>
+ *   <li>{@code pdfcompare.pages}, {@code pdfcompare.lines}, ... counters from the job's counts</li>
+ * </ul>
+ */
+@Service
+public class ComparisonMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(ComparisonMetrics.class);
+
+    @Autowired
+    private MeterRegistry registry;
+
+    public void recordFinished(ComparisonJob job) {
+        String status = job.getStatus().name().toLowerCase();
+        long totalMillis = Duration.between(job.getCreatedAt(), job.getFinishedAt() != null ? job.getFinishedAt() : Instant.now()).toMillis();
+        Timer.builder("pdfcompare.comparison.duration")
+                .tag("status", status)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(totalMillis, TimeUnit.MILLISECONDS);
+
+        StringBuilder line = new StringBuilder("comparison_timing job=").append(job.getId())
+                .append(" status=").append(status)
+                .append(" total_ms=").append(totalMillis);
+        for (Map.Entry<String, StageTiming> entry : job.getTimings().entrySet()) {
+            String stage = entry.getKey().replace(' ', '_');
+            StageTiming timing = entry.getValue();
+            Timer.builder("pdfcompare.stage.duration")
+                    .tag("stage", stage)
+                    .publishPercentileHistogram()
+                    .register(registry)
+                    .record(timing.nanos, TimeUnit.NANOSECONDS);
+            line.append(' ').append(stage).append("_ms=").append(timing.millis);
+            if (timing.allocatedBytes >= 0) {
+                DistributionSummary.builder("pdfcompare.stage.allocated")
+                        .baseUnit("bytes")
+                        .tag("stage", stage)
+                        .register(registry)
+                        .record(timing.allocatedBytes);
+                line.append(' ').append(stage).append("_alloc_bytes=").append(timing.allocatedBytes);
+            }
+        }
+        for (Map.Entry<String, Long> entry : job.getCounts().entrySet()) {
+            Counter.builder("pdfcompare." + entry.getKey()).register(registry).increment(entry.getValue());
+            line.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        log.info(line.toString());
+    }
+
+    /** A comparison answered from the result cache; it ran no stages. */
+    public void recordCacheHit() {
+        Counter.builder("pdfcompare.comparison.cache.hits").register(registry).increment();
+    }
+
+    /** Comparisons left out of the history because its queue was full or the write failed. */
+    public void recordHistoryDropped(int runs) {
+        Counter.builder("pdfcompare.history.dropped").register(registry).increment(runs);
+    }
+
+    public void gauge(String name, String tag, String value, Supplier<Number> supplier) {
+        Gauge.builder(name, supplier).tag(tag, value).register(registry);
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.pdfcomparator.service;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Receives stage and page progress from the comparison pipeline and tells it when to stop.
+ * Implementations must be thread-safe; pages are reported from parallel render workers.
+ */
+public interface ComparisonProgress {
+
+    ComparisonProgress NONE = new ComparisonProgress() {
+        @Override
+        public void stage(String stage, int totalSteps) {}
+
+        @Override
+        public void advance() {}
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    /** Starts a new stage; {@code totalSteps} is 0 when the stage has no countable steps. */
+    void stage(String stage, int totalSteps);
+
+    /** Marks one step of the current stage as done. */
+    void advance();
+
+    boolean isCancelled();
+
+    /** Adds {@code amount} to the named counter, e.g. pages or lines processed. */
+    default void count(String counter, long amount) {}
+
+    /**
+     * Both documents are loaded and their page trees read; nothing is extracted or rendered yet.
+     * E.g. for correcting a memory reservation made from the file sizes with the real page sizes.
+     */
+    default void loaded(AnalyzedDocument expected, DocumentAnalysis actual) {}
+
+    /** A page left out of the comparison; {@code reason} is {@link PageVerdict#IDENTICAL} or {@link PageVerdict#EXCLUDED}. */
+    default void pageSkipped(int page, String reason) {}
+
+    /** A page whose rendering differs, reported as soon as it is found; its verdict follows once its lines are compared. */
+    default void pixelsDiffer(int page) {}
+
+    /** A page's verdict once its lines are compared; rows {@code fromRow} until {@code toRow} of {@code differences} are its own. */
+    default void pageCompared(int page, LineDifferences differences, int fromRow, int toRow) {}
+
+    default void checkCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException("Comparison cancelled");
+        }
+    }
+}
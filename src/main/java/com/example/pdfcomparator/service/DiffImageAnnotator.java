@@ -0,0 +1,157 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.service.PixelComparator.DiffImage;
+import com.example.pdfcomparator.service.PixelComparator.PixelCompareResult;
+import com.example.pdfcomparator.util.ImageFiles;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Marks the differing lines on the diff rasters of the pixel comparison: each row of the line
+ * comparison gets a box around its expected line (red) and its actual line (green) on the page
+ * the line is on, using the bounds recorded at extraction. Pages are annotated and encoded in
+ * parallel, as full-size PNGs or, with {@code pdfcompare.annotate.format=jpeg} and a
+ * {@code max-width}, as downscaled JPEG thumbnails.
+ */
+@Service
+public class DiffImageAnnotator {
+
+    private static final Color EXPECTED_BOX = new Color(0xD2, 0x00, 0x00);
+    private static final Color ACTUAL_BOX = new Color(0x00, 0x96, 0x00);
+    /** Boxes are drawn this many points outside the glyph bounds so they do not cover the text. */
+    private static final float BOX_MARGIN = 1.5f;
+
+    @Value("${pdfcompare.annotate.format:png}")
+    private String format;
+
+    @Value("${pdfcompare.annotate.max-width:0}")
+    private int maxWidth;
+
+    @Value("${pdfcompare.annotate.jpeg-quality:0.85}")
+    private float jpegQuality;
+
+    private final ForkJoinPool pool;
+
+    public DiffImageAnnotator(@Value("${pdfcompare.annotate.parallelism:0}") int parallelism) {
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Writes {@code annotated-diffImage-page-N.png} (or {@code .jpg}) into {@code outputPath}
+     * for every page with a diff raster and returns the files by page number.
+     */
+    public Map<Integer, File> annotate(PixelCompareResult pixels, LineDifferences differences, String outputPath,
+                               ComparisonProgress progress) throws IOException {
+        Map<Integer, DiffImage> diffImages = pixels.getDiffImages();
+        progress.stage("annotating page", diffImages.size());
+        if (diffImages.isEmpty()) return new TreeMap<>();
+
+        Map<Integer, List<Integer>> rowsByPage = new HashMap<>();
+        for (int row = 0; row < differences.size(); row++) {
+            if (diffImages.containsKey(differences.page(row))) {
+                rowsByPage.computeIfAbsent(differences.page(row), page -> new ArrayList<>()).add(row);
+            }
+        }
+
+        File outputDir = new File(outputPath);
+        Map<Integer, Future<File>> written = new TreeMap<>();
+        for (DiffImage diff : diffImages.values()) {
+            List<Integer> rows = rowsByPage.getOrDefault(diff.page, List.of());
+            written.put(diff.page, pool.submit(() -> {
+                progress.checkCancelled();
+                try {
+                    return annotatePage(diff, differences, rows, outputDir);
+                } finally {
+                    diff.discard();
+                    progress.advance();
+                }
+            }));
+        }
+
+        Map<Integer, File> files = new TreeMap<>();
+        try {
+            for (Map.Entry<Integer, Future<File>> file : written.entrySet()) files.put(file.getKey(), file.getValue().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while annotating diff images", e);
+        } catch (ExecutionException e) {
+            for (Future<File> file : written.values()) file.cancel(false);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException("Annotating diff images failed", cause);
+        }
+        return files;
+    }
+
+    private File annotatePage(DiffImage diff, LineDifferences differences, List<Integer> rows, File outputDir) throws IOException {
+        BufferedImage image = diff.raster();
+        double scale = maxWidth > 0 && image.getWidth() > maxWidth ? (double) maxWidth / image.getWidth() : 1.0;
+        if (scale < 1.0) image = ImageFiles.scale(image, maxWidth);
+
+        // page points to raster pixels
+        double pixelsPerPoint = diff.dpi / 72.0 * scale;
+        double originX = diff.offsetX * scale, originY = diff.offsetY * scale;
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setStroke(new BasicStroke((float) Math.max(1.0, pixelsPerPoint)));
+            for (int row : rows) {
+                drawBox(graphics, differences.expectedBounds(row), EXPECTED_BOX, pixelsPerPoint, originX, originY);
+                drawBox(graphics, differences.actualBounds(row), ACTUAL_BOX, pixelsPerPoint, originX, originY);
+            }
+        } finally {
+            graphics.dispose();
+        }
+
+        boolean jpeg = "jpeg".equalsIgnoreCase(format) || "jpg".equalsIgnoreCase(format);
+        File file = new File(outputDir, "annotated-diffImage-page-" + diff.page + (jpeg ? ".jpg" : ".png"));
+        if (jpeg) {
+            try (OutputStream stream = new FileOutputStream(file)) {
+                ImageFiles.writeJpeg(image, stream, jpegQuality);
+            }
+        } else {
+            ImageIO.write(image, "png", file);
+        }
+        return file;
+    }
+
+    private static void drawBox(Graphics2D graphics, Rectangle2D.Float box, Color color,
+                                double pixelsPerPoint, double originX, double originY) {
+        if (box == null) return;
+        graphics.setColor(color);
+        graphics.draw(new Rectangle2D.Double(
+                (box.x - BOX_MARGIN) * pixelsPerPoint - originX,
+                (box.y - BOX_MARGIN) * pixelsPerPoint - originY,
+                (box.width + 2 * BOX_MARGIN) * pixelsPerPoint,
+                (box.height + 2 * BOX_MARGIN) * pixelsPerPoint));
+    }
+}
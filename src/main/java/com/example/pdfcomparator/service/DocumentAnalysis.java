@@ -0,0 +1,125 @@
+package com.example.pdfcomparator.service;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Everything the comparison needs from one PDF, collected in a single load and page walk.
+ * The underlying document stays open so the pixel stage can render from it; close when done.
+ */
+public class DocumentAnalysis implements AnalyzedDocument, Closeable {
+
+    public static class PageInfo {
+        public int pageNumber;
+        public float width, height;
+        public int rotation;
+        public Set<String> fontNames = new LinkedHashSet<>();
+    }
+
+    /** An image XObject in a page's resources, directly or inside form XObjects. */
+    public static class ImageInfo {
+        /** Resource path, e.g. "Im1" or "Fm0/Im3" for an image inside form Fm0. */
+        public String name;
+        public int width, height;
+        /** SHA-256 of the encoded stream (and soft mask), so equal bytes are found without decoding. */
+        public String streamHash;
+        /** 64-bit difference hash of the decoded image, or null until it is needed. */
+        public Long perceptualHash;
+        /** Decoding source; null for images loaded from a baseline. */
+        PDImageXObject image;
+    }
+
+    private final File sourceFile;
+    private final PDDocument document;
+    private final MemoryUsageSetting memoryUsage;
+    boolean largeDocument;
+    final LineStore lines = new LineStore();
+    final Map<Integer, String> imageResolutions = new HashMap<>();
+    final Map<Integer, List<ImageInfo>> images = new HashMap<>();
+    /** Stream hashes by object, so an image shared by many pages is hashed once. */
+    final Map<COSBase, String> streamHashes = new IdentityHashMap<>();
+    final List<PageInfo> pages = new ArrayList<>();
+    List<String> pageFingerprints;
+
+    DocumentAnalysis(File sourceFile, PDDocument document, MemoryUsageSetting memoryUsage) {
+        this.sourceFile = sourceFile;
+        this.document = document;
+        this.memoryUsage = memoryUsage;
+    }
+
+    public File getSourceFile() {
+        return sourceFile;
+    }
+
+    public PDDocument getDocument() {
+        return document;
+    }
+
+    /** Memory setting the document was loaded with; render workers open their copies the same way. */
+    public MemoryUsageSetting getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    /** True when the document should be extracted and compared in page ranges rather than all at once. */
+    public boolean isLargeDocument() {
+        return largeDocument;
+    }
+
+    @Override
+    public int getPageCount() {
+        return document.getNumberOfPages();
+    }
+
+    @Override
+    public LineStore getLines() {
+        return lines;
+    }
+
+    @Override
+    public Map<Integer, String> getImageResolutions() {
+        return imageResolutions;
+    }
+
+    @Override
+    public Map<Integer, List<ImageInfo>> getImages() {
+        return images;
+    }
+
+    /**
+     * Drops the images of pages {@code fromPage..toPage} (1-based, inclusive) and the stream hash
+     * memo once a chunk of a large document has been compared. An image shared across chunks is
+     * hashed again in the next chunk that uses it.
+     */
+    void releaseImages(int fromPage, int toPage) {
+        for (int page = fromPage; page <= toPage; page++) images.remove(page);
+        streamHashes.clear();
+    }
+
+    @Override
+    public List<PageInfo> getPages() {
+        return pages;
+    }
+
+    @Override
+    public List<String> getPageFingerprints() {
+        return pageFingerprints;
+    }
+
+    @Override
+    public void close() throws IOException {
+        document.close();
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.service.DocumentAnalysis.ImageInfo;
+import com.example.pdfcomparator.service.DocumentAnalysis.PageInfo;
+import com.example.pdfcomparator.util.ExclusionHelper.Exclusions;
+import com.example.pdfcomparator.util.HashingSpooler;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.DefaultResourceCache;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+@Service
+public class DocumentAnalyzer {
+
+    @Autowired
+    private PageFingerprinter pageFingerprinter;
+
+    @Value("${pdfcompare.fingerprint.enabled:true}")
+    private boolean fingerprintEnabled;
+
+    @Value("${pdfcompare.large-document.threshold-bytes:104857600}")
+    private long largeThresholdBytes;
+
+    @Value("${pdfcompare.large-document.threshold-pages:500}")
+    private int largeThresholdPages;
+
+    @Value("${pdfcompare.large-document.max-main-memory-bytes:67108864}")
+    private long largeMaxMainMemoryBytes;
+
+    @Value("${pdfcompare.large-document.scratch-dir:${java.io.tmpdir}}")
+    private String scratchDir;
+
+    /**
+     * Loads the PDF once and extracts every page.
+     *
+     * @param pdfFile PDF to analyse.
+     * @return open analysis; the caller owns it and must close it.
+     * @throws IOException if the document cannot be parsed.
+     */
+    public DocumentAnalysis analyze(File pdfFile) throws IOException {
+        DocumentAnalysis analysis = load(pdfFile);
+        try {
+            extract(analysis, Collections.emptySet());
+        } catch (IOException | RuntimeException e) {
+            analysis.close();
+            throw e;
+        }
+        return analysis;
+    }
+
+    /**
+     * Loads the PDF and records the render inputs and content fingerprint of every page, without
+     * extracting text yet, so identical pages can be excluded before {@link #extract}.
+     * <p>
+     * Files above the large-document byte threshold are loaded with PDFBox's mixed memory
+     * setting, spilling stream data to a scratch file, and without caching decoded XObjects.
+     * Documents above either threshold are flagged {@link DocumentAnalysis#isLargeDocument()}
+     * so the caller extracts and compares them page range by page range.
+     */
+    public DocumentAnalysis load(File pdfFile) throws IOException {
+        boolean largeFile = pdfFile.length() > largeThresholdBytes;
+        MemoryUsageSetting memoryUsage = largeFile
+                ? MemoryUsageSetting.setupMixed(largeMaxMainMemoryBytes).setTempDir(new File(scratchDir))
+                : MemoryUsageSetting.setupMainMemoryOnly();
+        PDDocument document = PDDocument.load(pdfFile, memoryUsage);
+        DocumentAnalysis analysis = new DocumentAnalysis(pdfFile, document, memoryUsage);
+        try {
+            if (largeFile) {
+                document.setResourceCache(new NonRetainingXObjectCache());
+            }
+            analysis.largeDocument = largeFile || document.getNumberOfPages() > largeThresholdPages;
+            int pageNumber = 0;
+            for (PDPage page : document.getPages()) {
+                analysis.pages.add(describePage(page, ++pageNumber));
+            }
+            if (fingerprintEnabled) {
+                analysis.pageFingerprints = pageFingerprinter.fingerprint(document);
+            }
+        } catch (IOException | RuntimeException e) {
+            analysis.close();
+            throw e;
+        }
+        return analysis;
+    }
+
+    /**
+     * Walks the loaded document once, collecting text lines with font details and the image
+     * XObjects of every page not in {@code skipPages} (1-based).
+     */
+    public void extract(DocumentAnalysis analysis, Set<Integer> skipPages) throws IOException {
+        extract(analysis, skipPages, Exclusions.NONE);
+    }
+
+    /** Like {@link #extract(DocumentAnalysis, Set)}, dropping lines that lie inside an excluded region. */
+    public void extract(DocumentAnalysis analysis, Set<Integer> skipPages, Exclusions exclusions) throws IOException {
+        extract(analysis, skipPages, exclusions, 1, Integer.MAX_VALUE, analysis.lines);
+    }
+
+    /**
+     * Extracts pages {@code fromPage..toPage} (1-based, inclusive) and returns their lines
+     * without retaining them in the analysis, for page-streaming comparison of large documents.
+     * The pages' font names are not recorded either; their images are, until
+     * {@link DocumentAnalysis#releaseImages} drops them after the chunk is compared.
+     */
+    public LineStore extractRange(DocumentAnalysis analysis, Set<Integer> skipPages, Exclusions exclusions,
+                                  int fromPage, int toPage) throws IOException {
+        LineStore lines = new LineStore();
+        extract(analysis, skipPages, exclusions, fromPage, toPage, lines);
+        return lines;
+    }
+
+    private void extract(DocumentAnalysis analysis, Set<Integer> skipPages, Exclusions exclusions, int fromPage, int toPage,
+                         LineStore sink) throws IOException {
+        // only a full extraction keeps per-page font names, which a baseline registration stores
+        boolean retain = sink == analysis.lines;
+        PDFTextStripper stripper = new PDFTextStripper() {
+            @Override
+            public void processPage(PDPage page) throws IOException {
+                int pageNumber = getCurrentPageNo();
+                // processPages calls this for every page; only super.processPage checks the range
+                if (pageNumber < getStartPage() || pageNumber > getEndPage() || skipPages.contains(pageNumber)) return;
+                List<ImageInfo> images = new ArrayList<>();
+                collectImages(page.getResources(), "", analysis, images, Collections.newSetFromMap(new IdentityHashMap<>()));
+                analysis.images.put(pageNumber, images);
+                analysis.imageResolutions.put(pageNumber, images.isEmpty() ? "-" : images.get(0).width + "x" + images.get(0).height);
+                super.processPage(page);
+            }
+
+            @Override
+            protected void writeString(String text, List<TextPosition> textPositions) throws IOException {
+                String lineText = text.trim();
+                if (!lineText.isEmpty() && !textPositions.isEmpty()) {
+                    float left = Float.POSITIVE_INFINITY, top = Float.POSITIVE_INFINITY;
+                    float right = Float.NEGATIVE_INFINITY, bottom = Float.NEGATIVE_INFINITY;
+                    for (TextPosition position : textPositions) {
+                        // direction-adjusted coordinates: top-left origin, y at the baseline
+                        left = Math.min(left, position.getXDirAdj());
+                        right = Math.max(right, position.getXDirAdj() + position.getWidthDirAdj());
+                        top = Math.min(top, position.getYDirAdj() - position.getHeightDir());
+                        bottom = Math.max(bottom, position.getYDirAdj());
+                    }
+                    int pageNumber = getCurrentPageNo();
+                    if (exclusions.excludes(pageNumber, left, top, right, bottom)) return;
+
+                    TextPosition first = textPositions.get(0);
+                    int line = sink.add(pageNumber, lineText, fontName(first.getFont()), Math.round(first.getFontSizeInPt() * 10),
+                            left, top, right, bottom);
+                    if (retain) analysis.pages.get(pageNumber - 1).fontNames.add(sink.fontName(line));
+                }
+            }
+        };
+        stripper.setStartPage(fromPage);
+        stripper.setEndPage(toPage);
+        stripper.getText(analysis.getDocument());
+    }
+
+    /** Keeps fonts and other small resources cached but lets decoded image and form XObjects be collected. */
+    private static class NonRetainingXObjectCache extends DefaultResourceCache {
+        @Override
+        public void put(COSObject indirect, PDXObject xobject) {
+        }
+    }
+
+    private PageInfo describePage(PDPage page, int pageNumber) {
+        PageInfo info = new PageInfo();
+        PDRectangle box = page.getCropBox();
+        info.pageNumber = pageNumber;
+        info.width = box.getWidth();
+        info.height = box.getHeight();
+        info.rotation = page.getRotation();
+        return info;
+    }
+
+    /**
+     * Adds the image XObjects of {@code resources} to {@code images} in resource order, descending
+     * into form XObjects. Image dictionaries are read, but no image is decoded.
+     */
+    private void collectImages(PDResources resources, String prefix, DocumentAnalysis analysis, List<ImageInfo> images,
+                               Set<COSBase> visitedForms) {
+        if (resources == null) return;
+        for (COSName name : resources.getXObjectNames()) {
+            try {
+                PDXObject xobject = resources.getXObject(name);
+                if (xobject instanceof PDImageXObject) {
+                    PDImageXObject image = (PDImageXObject) xobject;
+                    ImageInfo info = new ImageInfo();
+                    info.name = prefix + name.getName();
+                    info.width = image.getWidth();
+                    info.height = image.getHeight();
+                    info.streamHash = streamHash(image, analysis);
+                    info.image = image;
+                    images.add(info);
+                } else if (xobject instanceof PDFormXObject && visitedForms.add(xobject.getCOSObject())) {
+                    collectImages(((PDFormXObject) xobject).getResources(), prefix + name.getName() + "/", analysis, images, visitedForms);
+                }
+            } catch (IOException | RuntimeException ignored) {
+                // an unreadable XObject is left out, as before
+            }
+        }
+    }
+
+    private String streamHash(PDImageXObject image, DocumentAnalysis analysis) throws IOException {
+        COSStream stream = image.getCOSObject();
+        String known = analysis.streamHashes.get(stream);
+        if (known != null) return known;
+
+        MessageDigest digest = HashingSpooler.sha256();
+        digest.update(ByteBuffer.allocate(12).putInt(image.getWidth()).putInt(image.getHeight())
+                .putInt(image.getBitsPerComponent()).array());
+        update(digest, stream);
+        COSStream softMask = stream.getCOSStream(COSName.SMASK);
+        if (softMask != null) update(digest, softMask);
+        String hash = HexFormat.of().formatHex(digest.digest());
+        analysis.streamHashes.put(stream, hash);
+        return hash;
+    }
+
+    private static void update(MessageDigest digest, COSStream stream) throws IOException {
+        byte[] buffer = new byte[8192];
+        try (InputStream in = stream.createRawInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) > 0) digest.update(buffer, 0, read);
+        }
+    }
+
+    private String fontName(PDFont font) {
+        return font != null ? font.getName() : null;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.util.ExclusionHelper;
+import com.example.pdfcomparator.util.ExclusionHelper.Exclusions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Named exclusion sets, stored as the JSON they were registered with (one file per set) so that
+ * comparisons can refer to them with {@code "sets": ["name"]} instead of repeating the entries.
+ * Parsed sets, including their spatial indexes, are kept in memory after first use.
+ */
+@Service
+public class ExclusionSetRegistry {
+
+    private static final Pattern VALID_NAME = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]{0,99}");
+    private static final String SUFFIX = ".json";
+
+    @Value("${pdfcompare.exclusions.dir:${user.home}/.pdf-comparator/exclusion-sets}")
+    private String setsDir;
+
+    private final Map<String, Exclusions> loaded = new ConcurrentHashMap<>();
+
+    /**
+     * Registers {@code json} as set {@code name}, replacing any previous set of that name.
+     *
+     * @throws IllegalArgumentException if the name or the JSON is invalid, or the JSON refers to other sets.
+     */
+    public Exclusions save(String name, String json) throws IOException {
+        checkName(name);
+        Exclusions exclusions = ExclusionHelper.parse(json);
+        if (!exclusions.getSetNames().isEmpty()) {
+            throw new IllegalArgumentException("An exclusion set cannot refer to other sets");
+        }
+        Path root = Files.createDirectories(Paths.get(setsDir));
+        Path staging = root.resolve(name + SUFFIX + ".tmp-" + UUID.randomUUID());
+        try {
+            Files.writeString(staging, json, StandardCharsets.UTF_8);
+            synchronized (this) {
+                Files.move(staging, root.resolve(name + SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                loaded.put(name, exclusions);
+            }
+        } finally {
+            Files.deleteIfExists(staging);
+        }
+        return exclusions;
+    }
+
+    /** Returns the named set, or null if it is not registered. */
+    public Exclusions get(String name) throws IOException {
+        checkName(name);
+        Exclusions exclusions = loaded.get(name);
+        if (exclusions != null) return exclusions;
+
+        synchronized (this) {
+            exclusions = loaded.get(name);
+            if (exclusions == null) {
+                Path file = Paths.get(setsDir, name + SUFFIX);
+                if (!Files.exists(file)) return null;
+                exclusions = ExclusionHelper.parse(Files.readString(file, StandardCharsets.UTF_8));
+                loaded.put(name, exclusions);
+            }
+            return exclusions;
+        }
+    }
+
+    public List<String> list() throws IOException {
+        Path root = Paths.get(setsDir);
+        List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(root)) return names;
+        try (Stream<Path> files = Files.list(root)) {
+            files.map(file -> file.getFileName().toString())
+                 .filter(file -> file.endsWith(SUFFIX))
+                 .map(file -> file.substring(0, file.length() - SUFFIX.length()))
+                 .sorted()
+                 .forEach(names::add);
+        }
+        return names;
+    }
+
+    public synchronized boolean delete(String name) throws IOException {
+        checkName(name);
+        loaded.remove(name);
+        return Files.deleteIfExists(Paths.get(setsDir, name + SUFFIX));
+    }
+
+    /**
+     * Parses the exclusions sent with a comparison and adds the named sets it refers to.
+     *
+     * @throws IllegalArgumentException if the JSON is invalid or a referenced set is not registered.
+     */
+    public Exclusions resolve(String exclusionsJson) throws IOException {
+        Exclusions exclusions = ExclusionHelper.parse(exclusionsJson);
+        Exclusions resolved = exclusions;
+        for (String setName : exclusions.getSetNames()) {
+            Exclusions set = get(setName);
+            if (set == null) {
+                throw new IllegalArgumentException("Unknown exclusion set: " + setName);
+            }
+            resolved = resolved.merge(set);
+        }
+        return resolved;
+    }
+
+    private static void checkName(String name) {
+        if (name == null || !VALID_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid exclusion set name: " + name);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.service.PdfService.ComparisonOutcome;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the history of finished comparisons in the database: one {@code comparison_run} row
+ * per job and one {@code line_difference} row per differing line, so trends and flaky lines
+ * can be queried instead of grepping CSVs. The schema is in {@code schema-<platform>.sql}.
+ * <p>
+ * Jobs are handed over through a bounded queue and written by a single background thread in
+ * batched inserts, several jobs per transaction, so neither the request nor the comparison
+ * threads wait on the database. When the queue is full the job is dropped from the history and
+ * counted in {@code pdfcompare.history.dropped}. Without a DataSource the store is disabled.
+ */
+@Service
+public class HistoryStore {
+
+    private static final Logger log = LoggerFactory.getLogger(HistoryStore.class);
+
+    /** Longest line text and path stored; the CSV keeps the full text. Both match the column sizes. */
+    private static final int MAX_TEXT_LENGTH = 1000;
+    /** Longest document name stored, the most an indexed NVARCHAR column holds in SQL Server. */
+    private static final int MAX_NAME_LENGTH = 450;
+    private static final int MAX_RUNS_PER_TRANSACTION = 64;
+    private static final long SHUTDOWN_FLUSH_SECONDS = 10;
+
+    private static final String INSERT_RUN = "INSERT INTO comparison_run (job_id, source, expected_document, actual_document,"
+            + " expected_sha256, actual_sha256, status, passed, cached, identical_pages, difference_count, rows_recorded,"
+            + " stopped_at_page, duration_ms, started_at, finished_at, report_path, csv_path, error)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_DIFFERENCE = "INSERT INTO line_difference (job_id, document, page, row_no, change_type,"
+            + " expected_line, actual_line, expected_text, actual_text, failed_checks, finished_at)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String SELECT_RUNS = "SELECT job_id, source, expected_document, actual_document, status, passed, cached,"
+            + " identical_pages, difference_count, stopped_at_page, duration_ms, finished_at, report_path"
+            + " FROM comparison_run WHERE expected_document = ? AND finished_at >= ? ORDER BY finished_at DESC";
+    /**
+     * Runs that compared every page and have all their rows recorded: completed, not served from
+     * the cache, not stopped by fail-fast, and not cut off at max-rows-per-job.
+     */
+    private static final String FULL_RUN = "r.status = 'COMPLETED' AND r.cached = ? AND r.stopped_at_page = 0"
+            + " AND r.rows_recorded = r.difference_count";
+    private static final String COUNT_RUNS = "SELECT COUNT(*) FROM comparison_run r"
+            + " WHERE r.expected_document = ? AND r.finished_at >= ? AND " + FULL_RUN;
+    private static final String SELECT_FLAKY = "SELECT d.page, d.expected_line, d.change_type,"
+            + " COUNT(DISTINCT d.job_id) AS failing_runs, MIN(d.finished_at) AS first_seen, MAX(d.finished_at) AS last_seen,"
+            + " MAX(d.expected_text) AS expected_text"
+            + " FROM line_difference d JOIN comparison_run r ON r.job_id = d.job_id"
+            + " WHERE d.document = ? AND d.finished_at >= ? AND " + FULL_RUN
+            + " GROUP BY d.page, d.expected_line, d.change_type HAVING COUNT(DISTINCT d.job_id) < ?"
+            + " ORDER BY failing_runs DESC, d.page, d.expected_line";
+
+    @Autowired
+    private ObjectProvider<DataSource> dataSourceProvider;
+
+    @Autowired
+    private ComparisonMetrics comparisonMetrics;
+
+    @Value("${pdfcompare.history.enabled:true}")
+    private boolean enabled;
+
+    @Value("${pdfcompare.history.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${pdfcompare.history.batch-size:500}")
+    private int batchSize;
+
+    @Value("${pdfcompare.history.max-rows-per-job:10000}")
+    private int maxRowsPerJob;
+
+    private DataSource dataSource;
+    private BlockingQueue<Run> queue;
+    private Thread writer;
+    private volatile boolean closing;
+
+    /** A finished job waiting to be written. */
+    private static class Run {
+        final ComparisonJob job;
+        final String source;
+        final ComparisonOutcome outcome;
+        final LineDifferences differences;
+        final boolean cached;
+
+        Run(ComparisonJob job, String source, LineDifferences differences, boolean cached) {
+            this.job = job;
+            this.source = source;
+            this.outcome = job.getResult();
+            this.differences = differences;
+            this.cached = cached;
+        }
+    }
+
+    public static class RunSummary {
+        public String jobId;
+        public String source;
+        public String expectedDocument;
+        public String actualDocument;
+        public String status;
+        public Boolean passed;
+        public boolean cached;
+        public Integer identicalPages;
+        /** Null for cache hits, which do not carry their rows. */
+        public Integer differences;
+        public Integer stoppedAtPage;
+        public long durationMillis;
+        public Instant finishedAt;
+        public String reportPath;
+    }
+
+    /** A line that differed in some, but not all, of the full runs of a document. */
+    public static class FlakyLine {
+        public int page;
+        public Integer expectedLine;
+        public String change;
+        public String expectedText;
+        public int failingRuns;
+        public int totalRuns;
+        public Instant firstSeen;
+        public Instant lastSeen;
+    }
+
+    @PostConstruct
+    void start() {
+        dataSource = enabled ? dataSourceProvider.getIfAvailable() : null;
+        if (dataSource == null) {
+            log.info("Comparison history is disabled{}", enabled ? ": no DataSource is configured" : "");
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        comparisonMetrics.gauge("pdfcompare.history.queue", "state", "waiting", queue::size);
+        writer = new Thread(this::drain, "history-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        if (writer == null) return;
+        closing = true;
+        writer.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_FLUSH_SECONDS));
+        if (!queue.isEmpty()) log.warn("{} comparisons were not written to the history before shutdown", queue.size());
+    }
+
+    public boolean isEnabled() {
+        return dataSource != null;
+    }
+
+    /**
+     * Queues a finished job with the rows of its comparison, null if it did not complete; {@code
+     * source} is "job" or "batch". Never blocks.
+     */
+    public void record(ComparisonJob job, String source, LineDifferences differences) {
+        record(new Run(job, source, differences, false));
+    }
+
+    /** Queues a job answered from the result cache, which compared nothing and carries no rows. */
+    public void recordCacheHit(ComparisonJob job) {
+        record(new Run(job, "job", null, true));
+    }
+
+    private void record(Run run) {
+        if (queue == null || !run.job.isFinished()) return;
+        if (!queue.offer(run)) {
+            comparisonMetrics.recordHistoryDropped(1);
+            log.warn("History queue is full, comparison job {} is not recorded", run.job.getId());
+        }
+    }
+
+    /** Runs of {@code document} since {@code since}, newest first. */
+    public List<RunSummary> history(String document, Instant since, int limit) throws SQLException {
+        List<RunSummary> runs = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_RUNS)) {
+            statement.setMaxRows(limit);
+            statement.setString(1, truncate(document, MAX_NAME_LENGTH));
+            statement.setTimestamp(2, Timestamp.from(since));
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    RunSummary run = new RunSummary();
+                    run.jobId = rs.getString("job_id");
+                    run.source = rs.getString("source");
+                    run.expectedDocument = rs.getString("expected_document");
+                    run.actualDocument = rs.getString("actual_document");
+                    run.status = rs.getString("status");
+                    run.passed = rs.getObject("passed") != null ? rs.getBoolean("passed") : null;
+                    run.cached = rs.getBoolean("cached");
+                    run.identicalPages = rs.getObject("identical_pages", Integer.class);
+                    run.differences = rs.getObject("difference_count", Integer.class);
+                    run.stoppedAtPage = rs.getObject("stopped_at_page", Integer.class);
+                    run.durationMillis = rs.getLong("duration_ms");
+                    run.finishedAt = rs.getTimestamp("finished_at").toInstant();
+                    run.reportPath = rs.getString("report_path");
+                    runs.add(run);
+                }
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Lines of {@code document} that differed in some of its full, uncached runs since
+     * {@code since} but not in all of them, most often failing first. Lines that always differ
+     * are real differences, not flaky ones, and are left out. Runs with more differences than
+     * max-rows-per-job are left out of both counts, as their later lines are unknown.
+     */
+    public List<FlakyLine> flakyLines(String document, Instant since, int limit) throws SQLException {
+        List<FlakyLine> lines = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection()) {
+            int totalRuns;
+            try (PreparedStatement statement = connection.prepareStatement(COUNT_RUNS)) {
+                statement.setString(1, truncate(document, MAX_NAME_LENGTH));
+                statement.setTimestamp(2, Timestamp.from(since));
+                statement.setBoolean(3, false);
+                try (ResultSet rs = statement.executeQuery()) {
+                    totalRuns = rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+            if (totalRuns < 2) return lines;
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_FLAKY)) {
+                statement.setMaxRows(limit);
+                statement.setString(1, truncate(document, MAX_NAME_LENGTH));
+                statement.setTimestamp(2, Timestamp.from(since));
+                statement.setBoolean(3, false);
+                statement.setInt(4, totalRuns);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        FlakyLine line = new FlakyLine();
+                        line.page = rs.getInt("page");
+                        line.expectedLine = rs.getObject("expected_line", Integer.class);
+                        line.change = rs.getString("change_type");
+                        line.expectedText = rs.getString("expected_text");
+                        line.failingRuns = rs.getInt("failing_runs");
+                        line.totalRuns = totalRuns;
+                        line.firstSeen = rs.getTimestamp("first_seen").toInstant();
+                        line.lastSeen = rs.getTimestamp("last_seen").toInstant();
+                        lines.add(line);
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    private void drain() {
+        List<Run> runs = new ArrayList<>(MAX_RUNS_PER_TRANSACTION);
+        while (!closing || !queue.isEmpty()) {
+            try {
+                Run first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                runs.add(first);
+                queue.drainTo(runs, MAX_RUNS_PER_TRANSACTION - 1);
+                write(runs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (SQLException | RuntimeException e) {
+                // the rows are lost, but the comparisons themselves and their CSVs are not affected
+                comparisonMetrics.recordHistoryDropped(runs.size());
+                log.warn("Could not write {} comparisons to the history", runs.size(), e);
+            } finally {
+                runs.clear();
+            }
+        }
+    }
+
+    private void write(List<Run> runs) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement insertRun = connection.prepareStatement(INSERT_RUN);
+                 PreparedStatement insertDifference = connection.prepareStatement(INSERT_DIFFERENCE)) {
+                int pending = 0;
+                for (Run run : runs) {
+                    addRun(insertRun, run, maxRowsPerJob);
+                    if (run.differences == null) continue;
+                    int rows = Math.min(run.differences.size(), maxRowsPerJob);
+                    for (int row = 0; row < rows; row++) {
+                        addDifference(insertDifference, run, row);
+                        if (++pending == batchSize) {
+                            insertDifference.executeBatch();
+                            pending = 0;
+                        }
+                    }
+                }
+                insertRun.executeBatch();
+                if (pending > 0) insertDifference.executeBatch();
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static void addRun(PreparedStatement statement, Run run, int maxRows) throws SQLException {
+        ComparisonJob job = run.job;
+        ComparisonOutcome outcome = run.outcome;
+        statement.setString(1, job.getId());
+        statement.setString(2, run.source);
+        statement.setString(3, truncate(job.getExpectedDocument(), MAX_NAME_LENGTH));
+        statement.setString(4, truncate(job.getActualDocument(), MAX_NAME_LENGTH));
+        statement.setString(5, job.getExpectedSha256());
+        statement.setString(6, job.getActualSha256());
+        statement.setString(7, job.getStatus().name());
+        setBoolean(statement, 8, outcome != null ? outcome.passed : null);
+        statement.setBoolean(9, run.cached);
+        setInt(statement, 10, outcome != null ? outcome.identicalPages : null);
+        setInt(statement, 11, run.differences != null ? run.differences.size() : null);
+        setInt(statement, 12, run.differences != null ? Math.min(run.differences.size(), maxRows) : null);
+        setInt(statement, 13, outcome != null ? outcome.stoppedAtPage : null);
+        statement.setLong(14, Duration.between(job.getCreatedAt(), job.getFinishedAt()).toMillis());
+        statement.setTimestamp(15, Timestamp.from(job.getCreatedAt()));
+        statement.setTimestamp(16, Timestamp.from(job.getFinishedAt()));
+        statement.setString(17, truncate(outcome != null ? outcome.reportPath : null, MAX_TEXT_LENGTH));
+        statement.setString(18, truncate(outcome != null ? outcome.csvPath : null, MAX_TEXT_LENGTH));
+        statement.setString(19, truncate(job.getError(), MAX_TEXT_LENGTH));
+        statement.addBatch();
+    }
+
+    private static void addDifference(PreparedStatement statement, Run run, int row) throws SQLException {
+        LineDifferences differences = run.differences;
+        statement.setString(1, run.job.getId());
+        statement.setString(2, truncate(run.job.getExpectedDocument(), MAX_NAME_LENGTH));
+        statement.setInt(3, differences.page(row));
+        statement.setInt(4, row);
+        statement.setString(5, differences.changeType(row));
+        setInt(statement, 6, differences.expectedLineNumber(row) > 0 ? differences.expectedLineNumber(row) : null);
+        setInt(statement, 7, differences.actualLineNumber(row) > 0 ? differences.actualLineNumber(row) : null);
+        statement.setString(8, truncate(differences.expectedText(row), MAX_TEXT_LENGTH));
+        statement.setString(9, truncate(differences.actualText(row), MAX_TEXT_LENGTH));
+        statement.setString(10, truncate(differences.failedChecks(row), MAX_TEXT_LENGTH));
+        statement.setTimestamp(11, Timestamp.from(run.job.getFinishedAt()));
+        statement.addBatch();
+    }
+
+    private static void setInt(PreparedStatement statement, int index, Integer value) throws SQLException {
+        if (value != null) statement.setInt(index, value);
+        else statement.setNull(index, Types.INTEGER);
+    }
+
+    private static void setBoolean(PreparedStatement statement, int index, Boolean value) throws SQLException {
+        if (value != null) statement.setBoolean(index, value);
+        else statement.setNull(index, Types.BIT);
+    }
+
+    private static String truncate(CharSequence text, int maxLength) {
+        if (text == null) return null;
+        return text.length() <= maxLength ? text.toString() : text.subSequence(0, maxLength).toString();
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.service.DocumentAnalysis.ImageInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compares the image XObjects of a page pair without rendering the page. Images whose encoded
+ * streams are byte-identical match outright; the rest are paired by resource name, then by
+ * position, and compared by a 64-bit difference hash of the decoded image, so a re-encoded but
+ * visually equal image passes while a swapped one fails. Difference hashes are cached by stream
+ * hash across comparisons, so a logo repeated on every page, or in every run, is decoded once.
+ */
+@Service
+public class ImageComparator {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageComparator.class);
+    /** Decoded images are subsampled down to about this many pixels per side before hashing. */
+    private static final int HASH_SOURCE_SIZE = 64;
+
+    @Value("${pdfcompare.images.max-hash-distance:8}")
+    private int maxHashDistance;
+
+    private final Map<String, Long> perceptualHashes;
+
+    public ImageComparator(@Value("${pdfcompare.images.hash-cache-entries:10000}") int cacheEntries) {
+        this.perceptualHashes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > cacheEntries;
+            }
+        };
+    }
+
+    public static class ImageChange {
+        public static final String CHANGED = "CHANGED", RESIZED = "RESIZED", ADDED = "ADDED", REMOVED = "REMOVED";
+
+        public int page;
+        public String name;
+        public String change;
+        public String expected;
+        public String actual;
+        /** Bits that differ between the difference hashes, or -1 when not compared. */
+        public int distance = -1;
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder("Page ").append(page).append(": Image ").append(name);
+            switch (change) {
+                case ADDED -> text.append(" added (").append(actual).append(")");
+                case REMOVED -> text.append(" removed (").append(expected).append(")");
+                case RESIZED -> text.append(" resolution changed - Expected: ").append(expected).append(", Actual: ").append(actual);
+                default -> {
+                    text.append(" content changed - Expected: ").append(expected).append(", Actual: ").append(actual);
+                    if (distance >= 0) text.append(" (").append(distance).append(" of 64 hash bits differ)");
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    /** Compares the images of one page; the result is empty when every image matches. */
+    public List<ImageChange> comparePage(int page, List<ImageInfo> expected, List<ImageInfo> actual) {
+        List<ImageChange> changes = new ArrayList<>();
+        if (expected.isEmpty() && actual.isEmpty()) return changes;
+
+        // byte-identical streams match regardless of name or order
+        Map<String, Deque<Integer>> actualByHash = new HashMap<>();
+        for (int a = 0; a < actual.size(); a++) {
+            actualByHash.computeIfAbsent(actual.get(a).streamHash, hash -> new ArrayDeque<>()).add(a);
+        }
+        boolean[] actualMatched = new boolean[actual.size()];
+        List<ImageInfo> expectedLeft = new ArrayList<>();
+        for (ImageInfo image : expected) {
+            Deque<Integer> same = actualByHash.get(image.streamHash);
+            if (same != null && !same.isEmpty()) {
+                actualMatched[same.poll()] = true;
+            } else {
+                expectedLeft.add(image);
+            }
+        }
+        List<ImageInfo> actualLeft = new ArrayList<>();
+        for (int a = 0; a < actual.size(); a++) {
+            if (!actualMatched[a]) actualLeft.add(actual.get(a));
+        }
+        if (expectedLeft.isEmpty() && actualLeft.isEmpty()) return changes;
+
+        // pair the rest by resource name, then by position
+        List<ImageInfo> unpairedExpected = new ArrayList<>();
+        for (ImageInfo image : expectedLeft) {
+            ImageInfo counterpart = null;
+            for (ImageInfo candidate : actualLeft) {
+                if (Objects.equals(candidate.name, image.name)) {
+                    counterpart = candidate;
+                    break;
+                }
+            }
+            if (counterpart != null) {
+                actualLeft.remove(counterpart);
+                compare(page, image, counterpart, changes);
+            } else {
+                unpairedExpected.add(image);
+            }
+        }
+        int paired = Math.min(unpairedExpected.size(), actualLeft.size());
+        for (int k = 0; k < paired; k++) {
+            compare(page, unpairedExpected.get(k), actualLeft.get(k), changes);
+        }
+        for (int k = paired; k < unpairedExpected.size(); k++) {
+            changes.add(change(page, unpairedExpected.get(k).name, ImageChange.REMOVED, unpairedExpected.get(k), null));
+        }
+        for (int k = paired; k < actualLeft.size(); k++) {
+            changes.add(change(page, actualLeft.get(k).name, ImageChange.ADDED, null, actualLeft.get(k)));
+        }
+        return changes;
+    }
+
+    private void compare(int page, ImageInfo expected, ImageInfo actual, List<ImageChange> changes) {
+        Long expectedHash = perceptualHash(expected);
+        Long actualHash = perceptualHash(actual);
+        int distance = expectedHash != null && actualHash != null ? Long.bitCount(expectedHash ^ actualHash) : -1;
+        String name = expected.name.equals(actual.name) ? expected.name : expected.name + " -> " + actual.name;
+
+        ImageChange change = null;
+        if (distance < 0 || distance > maxHashDistance) {
+            change = change(page, name, ImageChange.CHANGED, expected, actual);
+        } else if (expected.width != actual.width || expected.height != actual.height) {
+            change = change(page, name, ImageChange.RESIZED, expected, actual);
+        }
+        if (change != null) {
+            change.distance = distance;
+            changes.add(change);
+        }
+    }
+
+    private static ImageChange change(int page, String name, String type, ImageInfo expected, ImageInfo actual) {
+        ImageChange change = new ImageChange();
+        change.page = page;
+        change.name = name;
+        change.change = type;
+        change.expected = expected != null ? expected.width + "x" + expected.height : "-";
+        change.actual = actual != null ? actual.width + "x" + actual.height : "-";
+        return change;
+    }
+
+    /**
+     * Returns the image's difference hash, decoding it on a cache miss. Null when the image
+     * cannot be decoded, or was loaded from a baseline without one.
+     */
+    public Long perceptualHash(ImageInfo image) {
+        if (image.perceptualHash != null) return image.perceptualHash;
+        synchronized (perceptualHashes) {
+            Long cached = perceptualHashes.get(image.streamHash);
+            if (cached != null) return image.perceptualHash = cached;
+        }
+        if (image.image == null) return null;
+        try {
+            int subsampling = Math.max(1, Math.min(image.width, image.height) / HASH_SOURCE_SIZE);
+            image.perceptualHash = differenceHash(image.image.getImage(null, subsampling));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot decode image {}: {}", image.name, e.toString());
+            return null;
+        }
+        synchronized (perceptualHashes) {
+            perceptualHashes.put(image.streamHash, image.perceptualHash);
+        }
+        return image.perceptualHash;
+    }
+
+    /**
+     * dHash: mean luminance of a 9x8 grid of cells, composited over white; bit (row, col) is set
+     * when cell col is brighter than cell col + 1.
+     */
+    static long differenceHash(BufferedImage image) {
+        int width = image.getWidth(), height = image.getHeight();
+        long[] sums = new long[9 * 8];
+        long[] counts = new long[9 * 8];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellRow = y * 8 / height;
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                int alpha = argb >>> 24;
+                int luminance = (((argb >> 16) & 0xFF) * 299 + ((argb >> 8) & 0xFF) * 587 + (argb & 0xFF) * 114) / 1000;
+                int cell = cellRow * 9 + x * 9 / width;
+                sums[cell] += (luminance * alpha + 255 * (255 - alpha)) / 255;
+                counts[cell]++;
+            }
+        }
+        long hash = 0;
+        for (int r = 0; r < 8; r++) {
+            for (int c = 0; c < 8; c++) {
+                long left = mean(sums, counts, r * 9 + c), right = mean(sums, counts, r * 9 + c + 1);
+                hash = (hash << 1) | (left > right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    private static long mean(long[] sums, long[] counts, int cell) {
+        return counts[cell] == 0 ? 255 : sums[cell] / counts[cell];
+    }
+}
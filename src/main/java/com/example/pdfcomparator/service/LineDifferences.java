@@ -0,0 +1,208 @@
+package com.example.pdfcomparator.service;
+
+import java.awt.geom.Rectangle2D;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rows a line comparison reports, stored column-wise. Each row is a page, a change type,
+ * the failed checks as bit flags and references to the lines involved, which are copied into
+ * this object's own {@link LineStore}s so the documents' lines can be released. Texts for
+ * reports and CSVs, including the mismatch description, are built only when a row is read.
+ */
+public class LineDifferences {
+
+    public static final byte MODIFIED = 0, INSERTED = 1, DELETED = 2, IMAGE = 3;
+    private static final String[] CHANGE_TYPES = {"MODIFIED", "INSERTED", "DELETED", "IMAGE"};
+
+    public static final int TEXT = 1, FONT = 2, FONT_SIZE = 4, IMAGE_RESOLUTION = 8, PIXELS = 16, IMAGE_CONTENT = 32;
+    public static final int LINE = TEXT | FONT | FONT_SIZE;
+    public static final int IMAGES = IMAGE_RESOLUTION | PIXELS | IMAGE_CONTENT;
+    public static final int ALL = LINE | IMAGES;
+
+    private final LineStore expectedLines = new LineStore();
+    private final LineStore actualLines = new LineStore();
+    private final Map<Integer, String> expectedImages;
+    private final Map<Integer, String> actualImages;
+
+    private int[] pages = new int[16];
+    private byte[] changeTypes = new byte[16];
+    private byte[] flags = new byte[16];
+    // index into expectedLines/actualLines and 1-based line number on the page; -1 and 0 when absent
+    private int[] expectedRefs = new int[16], actualRefs = new int[16];
+    private int[] expectedLineNumbers = new int[16], actualLineNumbers = new int[16];
+    private int size;
+
+    /** The image maps are read lazily, so they may still be filling while rows are added. */
+    public LineDifferences(Map<Integer, String> expectedImages, Map<Integer, String> actualImages) {
+        this.expectedImages = expectedImages;
+        this.actualImages = actualImages;
+    }
+
+    /**
+     * Adds a row.
+     *
+     * @param expected Store holding the expected line, or null for an inserted line or an image row.
+     * @param expectedIndex Line index in {@code expected}.
+     * @param expectedLineNumber 1-based position of the line on its page.
+     */
+    void add(int page, byte changeType, int failed,
+             LineStore expected, int expectedIndex, int expectedLineNumber,
+             LineStore actual, int actualIndex, int actualLineNumber) {
+        if (size == pages.length) {
+            int capacity = size * 2;
+            pages = Arrays.copyOf(pages, capacity);
+            changeTypes = Arrays.copyOf(changeTypes, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            expectedRefs = Arrays.copyOf(expectedRefs, capacity);
+            actualRefs = Arrays.copyOf(actualRefs, capacity);
+            expectedLineNumbers = Arrays.copyOf(expectedLineNumbers, capacity);
+            actualLineNumbers = Arrays.copyOf(actualLineNumbers, capacity);
+        }
+        pages[size] = page;
+        changeTypes[size] = changeType;
+        flags[size] = (byte) failed;
+        expectedRefs[size] = expected != null ? expectedLines.addFrom(expected, expectedIndex) : -1;
+        expectedLineNumbers[size] = expected != null ? expectedLineNumber : 0;
+        actualRefs[size] = actual != null ? actualLines.addFrom(actual, actualIndex) : -1;
+        actualLineNumbers[size] = actual != null ? actualLineNumber : 0;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Every stored row has at least one failed check. */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int page(int row) {
+        return pages[row];
+    }
+
+    public String changeType(int row) {
+        return CHANGE_TYPES[changeTypes[row]];
+    }
+
+    public int flags(int row) {
+        return flags[row];
+    }
+
+    /** 1-based position of the expected line on its page, or 0 when the row has none. */
+    public int expectedLineNumber(int row) {
+        return expectedLineNumbers[row];
+    }
+
+    public int actualLineNumber(int row) {
+        return actualLineNumbers[row];
+    }
+
+    /** "FAIL" if any of the checks in {@code mask} failed for the row, else "PASS". */
+    public String verdict(int row, int mask) {
+        return (flags[row] & mask) != 0 ? "FAIL" : "PASS";
+    }
+
+    public CharSequence expectedText(int row) {
+        if (changeTypes[row] == IMAGE) return "[Page images]";
+        return expectedRefs[row] >= 0 ? expectedLines.text(expectedRefs[row]) : "[Missing Line]";
+    }
+
+    public CharSequence actualText(int row) {
+        if (changeTypes[row] == IMAGE) return "[Page images]";
+        return actualRefs[row] >= 0 ? actualLines.text(actualRefs[row]) : "[Extra Line]";
+    }
+
+    public String expectedFontStyle(int row) {
+        return expectedRefs[row] >= 0 ? expectedLines.fontName(expectedRefs[row]) : "[None]";
+    }
+
+    public String actualFontStyle(int row) {
+        return actualRefs[row] >= 0 ? actualLines.fontName(actualRefs[row]) : "[None]";
+    }
+
+    public String expectedFontSize(int row) {
+        return expectedRefs[row] >= 0 ? expectedLines.fontSizeLabel(expectedRefs[row]) : "[None]";
+    }
+
+    public String actualFontSize(int row) {
+        return actualRefs[row] >= 0 ? actualLines.fontSizeLabel(actualRefs[row]) : "[None]";
+    }
+
+    /** The expected line's box in points from the page's top-left corner; null for no line or unknown bounds. */
+    public Rectangle2D.Float expectedBounds(int row) {
+        return bounds(expectedLines, expectedRefs[row]);
+    }
+
+    /** The actual line's box in points from the page's top-left corner; null for no line or unknown bounds. */
+    public Rectangle2D.Float actualBounds(int row) {
+        return bounds(actualLines, actualRefs[row]);
+    }
+
+    private static Rectangle2D.Float bounds(LineStore lines, int ref) {
+        if (ref < 0 || !lines.hasBounds(ref)) return null;
+        return new Rectangle2D.Float(lines.left(ref), lines.top(ref),
+                lines.right(ref) - lines.left(ref), lines.bottom(ref) - lines.top(ref));
+    }
+
+    public String expectedImage(int row) {
+        return expectedImages.getOrDefault(pages[row], "-");
+    }
+
+    public String actualImage(int row) {
+        return actualImages.getOrDefault(pages[row], "-");
+    }
+
+    /** The failed checks of the row, e.g. "Text mismatch; Font size mismatch; ". */
+    public String failedChecks(int row) {
+        StringBuilder checks = new StringBuilder();
+        appendFailedChecks(flags[row], checks);
+        return checks.toString();
+    }
+
+    private static void appendFailedChecks(int failed, StringBuilder details) {
+        if ((failed & TEXT) != 0) details.append("Text mismatch; ");
+        if ((failed & FONT) != 0) details.append("Font style mismatch; ");
+        if ((failed & FONT_SIZE) != 0) details.append("Font size mismatch; ");
+        if ((failed & IMAGE_RESOLUTION) != 0) details.append("Image resolution mismatch; ");
+        if ((failed & IMAGE_CONTENT) != 0) details.append("Image content mismatch—see image differences in PDF report; ");
+        if ((failed & PIXELS) != 0) details.append("Pixel-level image mismatch—see PDF report screenshot; ");
+    }
+
+    public String mismatchDetails(int row) {
+        StringBuilder details = new StringBuilder("Page ").append(pages[row]);
+        if (expectedLineNumbers[row] > 0) details.append(", expected line ").append(expectedLineNumbers[row]);
+        if (actualLineNumbers[row] > 0) details.append(", actual line ").append(actualLineNumbers[row]);
+        details.append(" [").append(changeType(row)).append("]: ");
+        appendFailedChecks(flags[row], details);
+
+        details.append("Expected Text=\"").append(expectedText(row))
+                .append("\", Actual Text=\"").append(actualText(row))
+                .append("\", Expected Font Style=\"").append(expectedFontStyle(row))
+                .append("\", Actual Font Style=\"").append(actualFontStyle(row))
+                .append("\", Expected Font Size=\"").append(expectedFontSize(row))
+                .append("\", Actual Font Size=\"").append(actualFontSize(row))
+                .append("\", Expected Image=\"").append(expectedImage(row))
+                .append("\", Actual Image=\"").append(actualImage(row))
+                .append('"');
+        return details.toString();
+    }
+
+    /** Mismatch descriptions of all rows as a list view; each element is built when it is read. */
+    public List<String> mismatchDetails() {
+        return new AbstractList<>() {
+            @Override
+            public String get(int row) {
+                return mismatchDetails(row);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.util.ExclusionHelper.Exclusions;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Extracted text lines stored column-wise: all text in one shared char buffer addressed by end
+ * offsets, page and font size (in tenths of a point) as int arrays, the bounding box in a float
+ * array and font names dictionary-encoded. A line costs a few array slots instead of an object graph with four
+ * strings, and line texts can be compared and hashed without creating strings.
+ */
+public class LineStore {
+
+    private char[] chars = new char[1024];
+    private int charCount;
+    private int[] textEnd = new int[64];
+    private int[] pages = new int[64];
+    private int[] fontIds = new int[64];
+    private int[] fontSizeTenths = new int[64];
+    // left, top, right, bottom in points from the page's top-left corner; NaN when unknown
+    private float[] bounds = new float[64 * 4];
+    private int size;
+
+    private final List<String> fonts = new ArrayList<>();
+    private final Map<String, Integer> fontIndex = new HashMap<>();
+
+    /** Appends a line whose position is unknown. */
+    public int add(int page, CharSequence text, String font, int fontSizeTenths) {
+        return add(page, text, font, fontSizeTenths, Float.NaN, Float.NaN, Float.NaN, Float.NaN);
+    }
+
+    /**
+     * Appends a line.
+     *
+     * @param font Font name, or null when unknown.
+     * @param fontSizeTenths Font size in tenths of a point, i.e. the size rounded to one decimal.
+     * @param left Bounding box of the line's glyphs in points from the top-left corner of the page.
+     * @return index of the new line.
+     */
+    public int add(int page, CharSequence text, String font, int fontSizeTenths,
+                   float left, float top, float right, float bottom) {
+        if (size == pages.length) {
+            int capacity = size * 2;
+            textEnd = Arrays.copyOf(textEnd, capacity);
+            pages = Arrays.copyOf(pages, capacity);
+            fontIds = Arrays.copyOf(fontIds, capacity);
+            this.fontSizeTenths = Arrays.copyOf(this.fontSizeTenths, capacity);
+            bounds = Arrays.copyOf(bounds, capacity * 4);
+        }
+        int length = text.length();
+        if (charCount + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+        }
+        for (int k = 0; k < length; k++) {
+            chars[charCount++] = text.charAt(k);
+        }
+        textEnd[size] = charCount;
+        pages[size] = page;
+        fontIds[size] = fontId(font);
+        this.fontSizeTenths[size] = fontSizeTenths;
+        bounds[size * 4] = left;
+        bounds[size * 4 + 1] = top;
+        bounds[size * 4 + 2] = right;
+        bounds[size * 4 + 3] = bottom;
+        return size++;
+    }
+
+    /** Copies line {@code index} of {@code other} into this store. */
+    public int addFrom(LineStore other, int index) {
+        return add(other.page(index), other.text(index), other.fontName(index), other.fontSizeTenths(index),
+                other.left(index), other.top(index), other.right(index), other.bottom(index));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int page(int index) {
+        return pages[index];
+    }
+
+    /** The line's text as a view of the shared buffer; valid until more lines are added. */
+    public CharSequence text(int index) {
+        int start = textStart(index);
+        return CharBuffer.wrap(chars, start, textEnd[index] - start);
+    }
+
+    public String textString(int index) {
+        int start = textStart(index);
+        return new String(chars, start, textEnd[index] - start);
+    }
+
+    public String fontName(int index) {
+        int id = fontIds[index];
+        return id < 0 ? null : fonts.get(id);
+    }
+
+    public int fontSizeTenths(int index) {
+        return fontSizeTenths[index];
+    }
+
+    public boolean hasBounds(int index) {
+        return !Float.isNaN(bounds[index * 4]);
+    }
+
+    public float left(int index) {
+        return bounds[index * 4];
+    }
+
+    public float top(int index) {
+        return bounds[index * 4 + 1];
+    }
+
+    public float right(int index) {
+        return bounds[index * 4 + 2];
+    }
+
+    public float bottom(int index) {
+        return bounds[index * 4 + 3];
+    }
+
+    /** Font size as shown in reports, e.g. "11.0pt". */
+    public String fontSizeLabel(int index) {
+        return formatFontSize(fontSizeTenths[index]);
+    }
+
+    /** Formats tenths of a point; mirrored text has a negative size, e.g. "-1.5pt". */
+    public static String formatFontSize(int tenths) {
+        int abs = Math.abs(tenths);
+        return (tenths < 0 ? "-" : "") + (abs / 10) + "." + (abs % 10) + "pt";
+    }
+
+    /** Parses a label written by {@link #formatFontSize} or by older versions ("11.0pt", "11,0pt"). */
+    public static int parseFontSize(String label) {
+        if (label == null) return 0;
+        String number = label.replace("pt", "").replace(',', '.').trim();
+        return Math.round(Float.parseFloat(number) * 10);
+    }
+
+    public boolean sameText(int index, LineStore other, int otherIndex) {
+        int start = textStart(index), length = textEnd[index] - start;
+        int otherStart = other.textStart(otherIndex);
+        return length == other.textEnd[otherIndex] - otherStart
+                && Arrays.equals(chars, start, start + length, other.chars, otherStart, otherStart + length);
+    }
+
+    public int textHash(int index) {
+        int hash = 1;
+        for (int k = textStart(index); k < textEnd[index]; k++) hash = 31 * hash + chars[k];
+        return hash;
+    }
+
+    /** Line indices per page, in extraction order. */
+    public Map<Integer, int[]> linesByPage() {
+        Map<Integer, int[]> byPage = new HashMap<>();
+        int i = 0;
+        while (i < size) {
+            // a page's lines are contiguous unless the store was assembled out of order
+            int end = i;
+            while (end < size && pages[end] == pages[i]) end++;
+            int[] run = new int[end - i];
+            for (int k = 0; k < run.length; k++) run[k] = i + k;
+            byPage.merge(pages[i], run, (before, after) -> {
+                int[] merged = Arrays.copyOf(before, before.length + after.length);
+                System.arraycopy(after, 0, merged, before.length, after.length);
+                return merged;
+            });
+            i = end;
+        }
+        return byPage;
+    }
+
+    /** A copy without the lines of {@code skipPages}, or this store if there is nothing to skip. */
+    public LineStore withoutPages(Set<Integer> skipPages) {
+        if (skipPages.isEmpty()) return this;
+        LineStore kept = new LineStore();
+        for (int i = 0; i < size; i++) {
+            if (!skipPages.contains(pages[i])) kept.addFrom(this, i);
+        }
+        return kept;
+    }
+
+    /**
+     * A copy without the lines that lie inside excluded regions, or this store if no region is
+     * excluded. Lines without a known position are kept.
+     */
+    public LineStore withoutExcluded(Exclusions exclusions) {
+        if (!exclusions.hasRegions()) return this;
+        LineStore kept = new LineStore();
+        for (int i = 0; i < size; i++) {
+            if (!hasBounds(i) || !exclusions.excludes(pages[i], left(i), top(i), right(i), bottom(i))) kept.addFrom(this, i);
+        }
+        return kept;
+    }
+
+    private int textStart(int index) {
+        return index == 0 ? 0 : textEnd[index - 1];
+    }
+
+    private int fontId(String font) {
+        if (font == null) return -1;
+        Integer id = fontIndex.get(font);
+        if (id == null) {
+            id = fonts.size();
+            fonts.add(font);
+            fontIndex.put(font, id);
+        }
+        return id;
+    }
+}
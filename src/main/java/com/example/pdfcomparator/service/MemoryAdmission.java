@@ -0,0 +1,290 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.service.DocumentAnalysis.PageInfo;
+import jakarta.annotation.PostConstruct;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admits comparisons against a heap budget so a burst of large uploads is turned away instead of
+ * running the JVM out of memory. A comparison is admitted on the request thread before either
+ * document is parsed, from the upload sizes, the page count and first page size read from a
+ * scratch-file backed load, and the render DPI: the parsed documents, the rasters in flight on
+ * the render pool, and the diff rasters held for annotation. One that does not fit waits, first
+ * come first served, up to {@code pdfcompare.admission.max-wait-seconds} (by default not at
+ * all); after that, or when {@code max-waiting} comparisons are already waiting, it is rejected
+ * with {@link AdmissionRejectedException}, which the controller answers with 503 and Retry-After.
+ * A comparison larger than the whole budget is admitted alone.
+ * <p>
+ * Once the pipeline has loaded both page trees (see {@link ComparisonProgress#loaded}) the
+ * {@link Reservation} it holds is adjusted to the estimate from every page's size, without waiting.
+ */
+@Service
+public class MemoryAdmission {
+
+    private static final Logger log = LoggerFactory.getLogger(MemoryAdmission.class);
+
+    /** Expected, actual and diff raster of a page in flight, 4 bytes per pixel each. */
+    private static final int BYTES_PER_PIXEL_IN_FLIGHT = 3 * 4;
+    /** A document loaded into main memory holds its file bytes plus the parsed objects and extracted text. */
+    private static final int DOCUMENT_BYTES_PER_FILE_BYTE = 3;
+
+    @Autowired
+    private PixelComparator pixelComparator;
+
+    @Autowired
+    private ComparisonMetrics comparisonMetrics;
+
+    @Value("${pdfcompare.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${pdfcompare.admission.heap-budget-bytes:0}")
+    private long heapBudgetBytes;
+
+    @Value("${pdfcompare.admission.heap-fraction:0.6}")
+    private double heapFraction;
+
+    @Value("${pdfcompare.admission.max-wait-seconds:0}")
+    private long maxWaitSeconds;
+
+    @Value("${pdfcompare.admission.max-waiting:32}")
+    private int maxWaiting;
+
+    @Value("${pdfcompare.admission.retry-after-seconds:30}")
+    private long retryAfterSeconds;
+
+    @Value("${pdfcompare.render.enabled:true}")
+    private boolean renderEnabled;
+
+    @Value("${pdfcompare.render.dpi:300}")
+    private float dpi;
+
+    @Value("${pdfcompare.render.max-page-bytes:268435456}")
+    private long maxPageBytes;
+
+    @Value("${pdfcompare.render.max-held-diff-bytes:536870912}")
+    private long maxHeldDiffBytes;
+
+    @Value("${pdfcompare.large-document.threshold-bytes:104857600}")
+    private long largeThresholdBytes;
+
+    @Value("${pdfcompare.large-document.max-main-memory-bytes:67108864}")
+    private long largeMaxMainMemoryBytes;
+
+    private long budget;
+    private long reserved;
+    private final Deque<Object> waiting = new ArrayDeque<>();
+
+    /**
+     * Budget held by an admitted comparison; closing it hands the bytes back. Closing twice is
+     * harmless, and so is adjusting after close.
+     */
+    public class Reservation implements AutoCloseable {
+        private long bytes;
+        private boolean released;
+
+        private Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        public long getBytes() {
+            synchronized (MemoryAdmission.this) {
+                return bytes;
+            }
+        }
+
+        /**
+         * Replaces the up-front estimate with one from the loaded page trees. More bytes are taken
+         * without waiting, since the documents are already in memory; fewer are handed back.
+         */
+        public void adjust(AnalyzedDocument expected, DocumentAnalysis actual) {
+            if (!enabled) return;
+            long adjusted = Math.min(estimate(expected, actual), budget);
+            synchronized (MemoryAdmission.this) {
+                if (released) return;
+                reserved += adjusted - bytes;
+                if (adjusted < bytes) MemoryAdmission.this.notifyAll();
+                bytes = adjusted;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (MemoryAdmission.this) {
+                if (released) return;
+                released = true;
+                release(bytes);
+            }
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        budget = heapBudgetBytes > 0 ? heapBudgetBytes : (long) (Runtime.getRuntime().maxMemory() * heapFraction);
+        log.info("Comparisons are admitted against a heap budget of {} MB", budget >> 20);
+        comparisonMetrics.gauge("pdfcompare.admission.bytes", "state", "reserved", this::reservedBytes);
+        comparisonMetrics.gauge("pdfcompare.admission.bytes", "state", "budget", () -> budget);
+        comparisonMetrics.gauge("pdfcompare.admission.waiting", "state", "waiting", this::waitingCount);
+    }
+
+    /** Estimated peak heap use of comparing two PDF files, before either is parsed. */
+    public long estimate(File expected, File actual) {
+        return documentBytes(expected) + documentBytes(actual) + renderBytes(pageLayout(expected), pageLayout(actual));
+    }
+
+    /** Estimated peak heap use of comparing a PDF file against a registered baseline, whose text is already in memory. */
+    public long estimate(Baseline baseline, File actual) {
+        return documentBytes(actual) + renderBytes(baseline.getPages(), pageLayout(actual));
+    }
+
+    /**
+     * Estimated peak heap use of comparing two loaded documents; a baseline on the expected side
+     * has its text in memory already and is not counted as a document.
+     */
+    public long estimate(AnalyzedDocument expected, DocumentAnalysis actual) {
+        long documents = documentBytes(actual.getSourceFile());
+        if (expected instanceof DocumentAnalysis) documents += documentBytes(((DocumentAnalysis) expected).getSourceFile());
+        return documents + renderBytes(expected.getPages(), actual.getPages());
+    }
+
+    /**
+     * Reserves {@code estimatedBytes} of the budget, waiting up to max-wait-seconds for running
+     * comparisons to finish if needed.
+     *
+     * @throws AdmissionRejectedException if the budget does not free up within the wait limit or
+     *                                    too many jobs are waiting already.
+     */
+    public Reservation admit(long estimatedBytes) {
+        if (!enabled) return new Reservation(0);
+        synchronized (this) {
+            long bytes = Math.min(estimatedBytes, budget);
+            if (waiting.isEmpty() && reserved + bytes <= budget) {
+                reserved += bytes;
+                return new Reservation(bytes);
+            }
+            if (waiting.size() >= maxWaiting) {
+                throw rejected(estimatedBytes, waiting.size() + " comparisons are already waiting for memory");
+            }
+            Object turn = new Object();
+            waiting.addLast(turn);
+            log.info("Comparison of about {} MB waits for memory: {} of {} MB reserved, {} waiting",
+                    estimatedBytes >> 20, reserved >> 20, budget >> 20, waiting.size());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(maxWaitSeconds);
+            try {
+                // first come first served, so a large job is not starved by a stream of small ones
+                while (waiting.peekFirst() != turn || reserved + bytes > budget) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        throw rejected(estimatedBytes, maxWaitSeconds > 0
+                                ? "no memory became available within " + maxWaitSeconds + " s"
+                                : "not enough free memory");
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                }
+                reserved += bytes;
+                return new Reservation(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw rejected(estimatedBytes, "interrupted while waiting for memory");
+            } finally {
+                waiting.remove(turn);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Reserves {@code estimatedBytes} without waiting, even beyond the budget; for work that is
+     * already bounded elsewhere, such as batch pairs on the render pool, so that comparisons
+     * submitted meanwhile see the memory it uses.
+     */
+    public synchronized Reservation hold(long estimatedBytes) {
+        long bytes = enabled ? Math.min(estimatedBytes, budget) : 0;
+        reserved += bytes;
+        return new Reservation(bytes);
+    }
+
+    private synchronized void release(long bytes) {
+        reserved -= bytes;
+        notifyAll();
+    }
+
+    private synchronized long reservedBytes() {
+        return reserved;
+    }
+
+    private synchronized int waitingCount() {
+        return waiting.size();
+    }
+
+    private AdmissionRejectedException rejected(long estimatedBytes, String reason) {
+        log.warn("Comparison of about {} MB rejected: {}", estimatedBytes >> 20, reason);
+        return new AdmissionRejectedException("Server busy, " + reason + "; retry later", retryAfterSeconds);
+    }
+
+    private long documentBytes(File file) {
+        long length = file.length();
+        // large files keep stream data in a scratch file beyond max-main-memory-bytes and are extracted page range by page range
+        return length > largeThresholdBytes ? DOCUMENT_BYTES_PER_FILE_BYTE * largeMaxMainMemoryBytes : DOCUMENT_BYTES_PER_FILE_BYTE * length;
+    }
+
+    /**
+     * Rasters of as many pages as the render pool works on at once, plus the diff rasters of
+     * every page held for annotation up to {@code max-held-diff-bytes}, as if every page differed.
+     */
+    private long renderBytes(List<PageInfo> expectedPages, List<PageInfo> actualPages) {
+        if (!renderEnabled) return 0;
+        int pageCount = Math.max(expectedPages.size(), actualPages.size());
+        long largestPage = 0;
+        long diffBytes = 0;
+        for (int i = 0; i < pageCount; i++) {
+            long pageBytes = Math.max(pageBytes(expectedPages, i), pageBytes(actualPages, i));
+            largestPage = Math.max(largestPage, pageBytes);
+            diffBytes += pageBytes / 3;
+        }
+        int inFlight = Math.min(pageCount, pixelComparator.pool().getParallelism());
+        return largestPage * inFlight + Math.min(diffBytes, maxHeldDiffBytes);
+    }
+
+    private long pageBytes(List<PageInfo> pages, int index) {
+        if (index >= pages.size()) return 0;
+        PageInfo page = pages.get(index);
+        double scale = dpi / 72.0;
+        // oversized pages are rendered at a lower DPI, see PixelComparator
+        return Math.min((long) (page.width * scale * page.height * scale * BYTES_PER_PIXEL_IN_FLIGHT), maxPageBytes);
+    }
+
+    /**
+     * As many copies of the first page's crop box as the document has pages. The load keeps stream
+     * data in a scratch file and reads only the page tree and the first page, so it costs little heap.
+     */
+    private static List<PageInfo> pageLayout(File file) {
+        try (PDDocument document = PDDocument.load(file, MemoryUsageSetting.setupTempFileOnly())) {
+            int pages = document.getNumberOfPages();
+            if (pages == 0) return Collections.emptyList();
+            PDRectangle box = document.getPage(0).getCropBox();
+            PageInfo first = new PageInfo();
+            first.width = box.getWidth();
+            first.height = box.getHeight();
+            return Collections.nCopies(pages, first);
+        } catch (IOException e) {
+            // the comparison itself will fail on this file and report why
+            log.debug("Cannot read the page layout of {} for the memory estimate", file, e);
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.util.HashingSpooler;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hashes what a page renders from: its dictionary, raw content streams and every resource it
+ * references (fonts, image and form XObjects, patterns, annotations' appearance streams).
+ * Two pages with equal fingerprints render to identical pixels and text, so they can be
+ * accepted without rendering or extraction.
+ * <p>
+ * The hash is a Merkle hash over the COS object graph; shared objects such as an embedded font
+ * used on every page are hashed once per document. {@code /Parent} links are not followed, so a
+ * page's fingerprint does not depend on its siblings.
+ */
+@Service
+public class PageFingerprinter {
+
+    private static final byte[] CYCLE = {'c'};
+
+    public List<String> fingerprint(PDDocument document) throws IOException {
+        Map<COSBase, byte[]> memo = new IdentityHashMap<>();
+        Set<COSBase> inProgress = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<String> fingerprints = new ArrayList<>(document.getNumberOfPages());
+
+        for (PDPage page : document.getPages()) {
+            MessageDigest digest = HashingSpooler.sha256();
+            digest.update(hash(page.getCOSObject(), memo, inProgress));
+            // inherited attributes live on the page tree, which is not followed
+            PDResources resources = page.getResources();
+            if (resources != null) digest.update(hash(resources.getCOSObject(), memo, inProgress));
+            updateBox(digest, page.getMediaBox());
+            updateBox(digest, page.getCropBox());
+            digest.update((byte) (page.getRotation() / 90));
+            fingerprints.add(HexFormat.of().formatHex(digest.digest()));
+        }
+        return fingerprints;
+    }
+
+    private byte[] hash(COSBase base, Map<COSBase, byte[]> memo, Set<COSBase> inProgress) throws IOException {
+        if (base instanceof COSObject) {
+            base = ((COSObject) base).getObject();
+        }
+        if (base == null) {
+            return new byte[]{'n'};
+        }
+        if (!(base instanceof COSDictionary) && !(base instanceof COSArray)) {
+            return scalar(base);
+        }
+
+        byte[] known = memo.get(base);
+        if (known != null) return known;
+        if (!inProgress.add(base)) return CYCLE;
+
+        MessageDigest digest = HashingSpooler.sha256();
+        if (base instanceof COSArray) {
+            COSArray array = (COSArray) base;
+            digest.update((byte) 'a');
+            for (int i = 0; i < array.size(); i++) {
+                digest.update(hash(array.get(i), memo, inProgress));
+            }
+        } else {
+            COSDictionary dictionary = (COSDictionary) base;
+            digest.update((byte) (base instanceof COSStream ? 's' : 'd'));
+            List<COSName> keys = new ArrayList<>(dictionary.keySet());
+            keys.sort(null);
+            for (COSName key : keys) {
+                if (COSName.PARENT.equals(key)) continue;
+                digest.update(key.getName().getBytes(StandardCharsets.UTF_8));
+                digest.update(hash(dictionary.getItem(key), memo, inProgress));
+            }
+            if (base instanceof COSStream) {
+                try (InputStream raw = ((COSStream) base).createRawInputStream()) {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = raw.read(buffer)) > 0) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+            }
+        }
+
+        inProgress.remove(base);
+        byte[] result = digest.digest();
+        memo.put(base, result);
+        return result;
+    }
+
+    private byte[] scalar(COSBase base) {
+        String value;
+        char tag;
+        if (base instanceof COSName) {
+            tag = '/';
+            value = ((COSName) base).getName();
+        } else if (base instanceof COSString) {
+            tag = '(';
+            value = HexFormat.of().formatHex(((COSString) base).getBytes());
+        } else if (base instanceof COSInteger) {
+            tag = 'i';
+            value = String.valueOf(((COSInteger) base).longValue());
+        } else if (base instanceof COSFloat) {
+            tag = 'f';
+            value = String.valueOf(((COSFloat) base).floatValue());
+        } else if (base instanceof COSBoolean) {
+            tag = 'b';
+            value = String.valueOf(((COSBoolean) base).getValue());
+        } else {
+            tag = '?';
+            value = base.getClass().getSimpleName();
+        }
+        return (tag + value + '\u0000').getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void updateBox(MessageDigest digest, PDRectangle box) {
+        String value = box.getLowerLeftX() + "," + box.getLowerLeftY() + "," + box.getUpperRightX() + "," + box.getUpperRightY() + ";";
+        digest.update(value.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.pdfcomparator.service;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+
+/** Supplies page rasters for one side of a pixel comparison. */
+public interface PageSource extends Closeable {
+
+    int getPageCount();
+
+    /** DPI page {@code pageIndex} is rendered at; positive infinity for pages this side does not have. */
+    float getDpi(int pageIndex);
+
+    BufferedImage render(int pageIndex, float dpi) throws IOException;
+
+    /**
+     * Renders the pixel rectangle {@code region} of the page as it appears in {@link #render} at
+     * {@code dpi}. Parts of the region outside the page are white.
+     */
+    default BufferedImage renderRegion(int pageIndex, float dpi, Rectangle region) throws IOException {
+        BufferedImage page = render(pageIndex, dpi);
+        BufferedImage image = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setBackground(Color.WHITE);
+        graphics.clearRect(0, 0, region.width, region.height);
+        graphics.drawImage(page, -region.x, -region.y, null);
+        graphics.dispose();
+        return image;
+    }
+
+    /** Whether {@link #renderRegion} rasterises only the region rather than cropping a full render. */
+    default boolean rendersRegions() {
+        return false;
+    }
+
+    /**
+     * Whether this side only has rasters at {@link #getDpi} and cannot render at any other DPI,
+     * as with stored baseline rasters; the other side must then render at that DPI.
+     */
+    default boolean hasFixedDpi() {
+        return false;
+    }
+
+    /** SHA-256 of the page's pixels when it is known without rendering, otherwise null. */
+    default String getPixelHash(int pageIndex) {
+        return null;
+    }
+
+    /**
+     * Returns a source that may be used by another render worker. PDFBox documents are not
+     * thread-safe, so document-backed sources open a private copy that the worker must close.
+     */
+    PageSource forWorker() throws IOException;
+
+    @Override
+    default void close() throws IOException {}
+}
@@ -0,0 +1,78 @@
+package com.example.pdfcomparator.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One event of a streamed comparison: the verdict of a page ({@code type} "page"), or a page
+ * found to render differently before its lines are compared ({@code type} "pixels").
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PageVerdict {
+
+    public static final String IDENTICAL = "identical", EXCLUDED = "excluded", MATCH = "match", MISMATCH = "mismatch";
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Row {
+        public String change;
+        public Integer expectedLine, actualLine;
+        public String expectedText, actualText;
+        public String expectedFontStyle, actualFontStyle;
+        public String expectedFontSize, actualFontSize;
+        public String failedChecks;
+    }
+
+    public String type;
+    public int page;
+    public String verdict;
+    /** Differences of the page, at most the stream's per-page limit; the CSV has all of them. */
+    public List<Row> differences;
+    /** Differences of the page beyond {@link #differences}. */
+    public Integer moreDifferences;
+
+    static PageVerdict skipped(int page, String reason) {
+        PageVerdict verdict = new PageVerdict();
+        verdict.type = "page";
+        verdict.page = page;
+        verdict.verdict = reason;
+        return verdict;
+    }
+
+    static PageVerdict pixelsDiffer(int page) {
+        PageVerdict verdict = new PageVerdict();
+        verdict.type = "pixels";
+        verdict.page = page;
+        verdict.verdict = MISMATCH;
+        return verdict;
+    }
+
+    /** Copies rows {@code fromRow} until {@code toRow}, as the rows keep growing while the comparison goes on. */
+    static PageVerdict compared(int page, LineDifferences differences, int fromRow, int toRow, int maxRows) {
+        PageVerdict verdict = new PageVerdict();
+        verdict.type = "page";
+        verdict.page = page;
+        verdict.verdict = toRow > fromRow ? MISMATCH : MATCH;
+        if (toRow == fromRow) return verdict;
+
+        int end = Math.min(toRow, fromRow + maxRows);
+        verdict.differences = new ArrayList<>(end - fromRow);
+        for (int row = fromRow; row < end; row++) {
+            Row copy = new Row();
+            copy.change = differences.changeType(row);
+            copy.expectedLine = differences.expectedLineNumber(row) > 0 ? differences.expectedLineNumber(row) : null;
+            copy.actualLine = differences.actualLineNumber(row) > 0 ? differences.actualLineNumber(row) : null;
+            copy.expectedText = differences.expectedText(row).toString();
+            copy.actualText = differences.actualText(row).toString();
+            copy.expectedFontStyle = differences.expectedFontStyle(row);
+            copy.actualFontStyle = differences.actualFontStyle(row);
+            copy.expectedFontSize = differences.expectedFontSize(row);
+            copy.actualFontSize = differences.actualFontSize(row);
+            copy.failedChecks = differences.failedChecks(row);
+            verdict.differences.add(copy);
+        }
+        if (toRow > end) verdict.moreDifferences = toRow - end;
+        return verdict;
+    }
+}
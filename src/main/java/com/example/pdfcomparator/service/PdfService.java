@@ -1,24 +1,15 @@
 package com.example.pdfcomparator.service;
 import com.example.pdfcomparator.util.CsvReportExporter;
-//import com.example.pdfcomparator.util.ExclusionHelper;
-import de.redsix.pdfcompare.CompareResult;
-import de.redsix.pdfcompare.PdfComparator;
-import org.apache.pdfbox.cos.COSName;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
-import org.apache.pdfbox.text.PDFTextStripper;
-import org.apache.pdfbox.text.TextPosition;
+import com.example.pdfcomparator.util.ExclusionHelper.Exclusions;
+import com.example.pdfcomparator.util.LineAligner;
+import com.example.pdfcomparator.service.ImageComparator.ImageChange;
+import com.example.pdfcomparator.service.PixelComparator.PixelCompareResult;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.*;
 
@@ -28,241 +19,470 @@ public class PdfService {
     @Autowired
     private ReportService reportService;
 
-    public static class ExtractedLine {
-        public int pageNumber;
-        public String lineText;
-        public String fontStyle;
-        public String fontSize;
-    }
-
-    public static class LineComparisonResult {
-        public int pageNumber;
-        public String expectedText, actualText;
-        public String expectedFontStyle, actualFontStyle;
-        public String expectedFontSize, actualFontSize;
-        public String expectedImage, actualImage;
-        public String textCompare, imageCompare, fontCompare, fontSizeCompare, lineCompare, allCompare, passFail;
-        public String mismatchDetails;
-    }
-
-    public String comparePDFs(MultipartFile file1, MultipartFile file2, String exclusionsJson) throws IOException {
-        File tempFile1 = File.createTempFile("pdf1-", ".pdf");
-        File tempFile2 = File.createTempFile("pdf2-", ".pdf");
-
-        file1.transferTo(tempFile1);
-        file2.transferTo(tempFile2);
+    @Autowired
+    private DocumentAnalyzer documentAnalyzer;
 
-        String outputDirPath = System.getProperty("user.home") + "/OneDrive - LTIMindtree/Desktop/TestResult/AllinOneReport";
-        File outputDir = new File(outputDirPath);
-        if (!outputDir.exists() && !outputDir.mkdirs()) {
-            throw new IOException("Failed to create output directory: " + outputDirPath);
-        }
+    @Autowired
+    private PixelComparator pixelComparator;
 
-        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-        String outputPath = outputDirPath + "/pdf-comparison-result-" + timestamp;
+    @Autowired
+    private ImageComparator imageComparator;
 
-        PdfComparator<?> comparator = new PdfComparator<>(tempFile1, tempFile2);
-//        ExclusionHelper.applyExclusions(comparator, exclusionsJson);
+    @Autowired
+    private DiffImageAnnotator diffImageAnnotator;
 
-        CompareResult result = comparator.compare();
-        result.writeTo(outputPath);
+    @Autowired
+    private WorkspaceManager workspaceManager;
+
+    @Value("${pdfcompare.render.enabled:true}")
+    private boolean renderEnabled;
+
+    @Value("${pdfcompare.lines.max-edits-per-page:2000}")
+    private int maxEditsPerPage;
+
+    @Value("${pdfcompare.large-document.chunk-pages:50}")
+    private int chunkPages;
+
+    @Value("${pdfcompare.csv.gzip:false}")
+    private boolean gzipCsv;
+
+    public static class ComparisonOutcome {
+        public boolean passed;
+        public String message;
+        public String reportPath;
+        public String csvPath;
+        public String outputPath;
+        public int identicalPages;
+        /** The first differing page when a fail-fast comparison stopped there, with no report or CSV written; otherwise 0. */
+        public int stoppedAtPage;
+        /**
+         * Rows of a freshly run comparison, kept while its job is retained so the CSV can be streamed
+         * without re-reading it; null for cache hits and batch pairs.
+         */
+        @JsonIgnore
+        public LineDifferences differences;
+    }
 
-        List<ExtractedLine> expectedLines = extractAllLineDetails(tempFile1);
-        List<ExtractedLine> actualLines = extractAllLineDetails(tempFile2);
+    /**
+     * Compares two PDFs. Excluded pages are neither extracted nor rendered; lines inside excluded
+     * regions are dropped and the regions are blanked before pixels are compared.
+     */
+    public ComparisonOutcome comparePDFs(File tempFile1, File tempFile2, Exclusions exclusions, ComparisonProgress progress) throws IOException {
+        return comparePDFs(tempFile1, tempFile2, exclusions, progress, workspaceManager.createOutputDirectory(null));
+    }
 
-        Map<Integer, String> expectedImages = extractImageResolutionsPerPage(tempFile1);
-        Map<Integer, String> actualImages = extractImageResolutionsPerPage(tempFile2);
+    /** Like {@link #comparePDFs(File, File, Exclusions, ComparisonProgress)}, writing all artifacts to {@code outputDir}. */
+    public ComparisonOutcome comparePDFs(File tempFile1, File tempFile2, Exclusions exclusions, ComparisonProgress progress,
+                                         File outputDir) throws IOException {
+        progress.stage("extracting", 2);
+        try (DocumentAnalysis expected = documentAnalyzer.load(tempFile1)) {
+            return compareWith(expected, pixelComparator.pages(expected), tempFile2, exclusions, progress, outputDir);
+        }
+    }
 
-        List<LineComparisonResult> results = compareAllLines(expectedLines, actualLines, expectedImages, actualImages, outputPath);
+    /** Compares {@code actualFile} against a registered baseline; only the actual document is parsed and rendered. */
+    public ComparisonOutcome compareAgainstBaseline(Baseline baseline, File actualFile, Exclusions exclusions, ComparisonProgress progress,
+                                                    File outputDir) throws IOException {
+        progress.stage("extracting", 1);
+        return compareWith(baseline, baseline, actualFile, exclusions, progress, outputDir);
+    }
 
-        List<String> pixelSummary = extractPixelDifferences(outputPath);
+    private ComparisonOutcome compareWith(AnalyzedDocument expected, PageSource expectedPages, File actualFile,
+                                          Exclusions exclusions, ComparisonProgress progress, File outputDir) throws IOException {
+        String outputPath = outputDir.getPath();
+
+        LineDifferences results;
+        Map<Integer, String> expectedImages;
+        Map<Integer, String> actualImages;
+        PixelCompareResult result;
+        Map<Integer, List<ImageChange>> imageChanges;
+        Set<Integer> identicalPages;
+        int pageCount;
+        progress.checkCancelled();
+        try (DocumentAnalysis actual = documentAnalyzer.load(actualFile)) {
+            progress.loaded(expected, actual);
+            progress.checkCancelled();
+            identicalPages = identicalPages(expected.getPageFingerprints(), actual.getPageFingerprints());
+            pageCount = Math.max(expected.getPageCount(), actual.getPageCount());
+            progress.count("pages", pageCount);
+            progress.count("pages.identical", identicalPages.size());
+            Set<Integer> skipPages = identicalPages;
+            if (!exclusions.getPages().isEmpty()) {
+                skipPages = new HashSet<>(identicalPages);
+                skipPages.addAll(exclusions.getPages());
+                progress.count("pages.excluded", exclusions.getPages().stream().filter(page -> page <= pageCount).count());
+            }
+            for (int page = 1; page <= pageCount; page++) {
+                if (identicalPages.contains(page)) progress.pageSkipped(page, PageVerdict.IDENTICAL);
+                else if (skipPages.contains(page)) progress.pageSkipped(page, PageVerdict.EXCLUDED);
+            }
 
-        List<String> failDetails = new ArrayList<>();
-        for (LineComparisonResult lineResult : results) {
-            if ("FAIL".equalsIgnoreCase(lineResult.passFail)) {
-                failDetails.add(lineResult.mismatchDetails);
+            boolean streaming = actual.isLargeDocument()
+                    || (expected instanceof DocumentAnalysis && ((DocumentAnalysis) expected).isLargeDocument());
+            if (!streaming) {
+                // a baseline arrives already extracted; a freshly loaded document is extracted here
+                if (expected instanceof DocumentAnalysis) {
+                    documentAnalyzer.extract((DocumentAnalysis) expected, skipPages, exclusions);
+                    progress.advance();
+                    progress.checkCancelled();
+                }
+                documentAnalyzer.extract(actual, skipPages, exclusions);
+                progress.advance();
+            }
+            progress.checkCancelled();
+            result = renderEnabled
+                    ? pixelComparator.compare(expectedPages, pixelComparator.pages(actual), outputPath, skipPages, exclusions, progress)
+                    : PixelComparator.notRendered();
+
+            // null when the expected side is a baseline registered before images were recorded
+            imageChanges = expected.getImages() != null ? new TreeMap<>() : null;
+            if (streaming) {
+                results = compareLinesInChunks(expected, actual, pageCount, skipPages, exclusions, result.getDifferentPages(),
+                        imageChanges, progress);
+                expectedImages = withoutPages(expected.getImageResolutions(), skipPages);
+                actualImages = actual.getImageResolutions();
+            } else {
+                if (imageChanges != null) {
+                    progress.stage("comparing images", 0);
+                    for (int page = 1; page <= pageCount; page++) {
+                        if (!skipPages.contains(page)) compareImages(page, expected, actual, imageChanges);
+                    }
+                }
+                progress.stage("comparing lines", 0);
+                expectedImages = withoutPages(expected.getImageResolutions(), skipPages);
+                actualImages = actual.getImageResolutions();
+                // a baseline's lines were extracted without this request's exclusions
+                LineStore expectedLines = expected.getLines().withoutPages(skipPages);
+                if (!(expected instanceof DocumentAnalysis)) expectedLines = expectedLines.withoutExcluded(exclusions);
+                progress.count("lines", expectedLines.size() + actual.getLines().size());
+                results = compareAllLines(expectedLines, actual.getLines(), expectedImages, actualImages, result.getDifferentPages(),
+                        imageChanges, pageCount, skipPages, progress);
+            }
+            progress.count("differences", results.size());
+            if (imageChanges != null) {
+                progress.count("images.changed", imageChanges.values().stream().mapToLong(List::size).sum());
             }
         }
-        generateAnnotatedImages(failDetails, outputPath);
 
-        boolean testCasePass = result.isEqual() && results.stream().allMatch(r -> "PASS".equalsIgnoreCase(r.passFail));
+        boolean testCasePass = result.isEqual() && results.isEmpty();
+        progress.checkCancelled();
+        Map<Integer, File> diffImages = diffImageAnnotator.annotate(result, results, outputPath, progress);
+
         String expectedMsg = "PDFs should be identical";
         String actualMsg = testCasePass ? "✅ TestCase Passed: PDFs match" : "❌ TestCase Failed: Differences detected";
 
+        progress.checkCancelled();
+        progress.stage("reporting", 0);
         String reportPath = reportService.generateReport(
+                outputPath,
                 expectedMsg,
                 actualMsg,
-                outputPath,
-                failDetails,
-                pixelSummary,
-                getImageDiffStrings(expectedImages, actualImages)
+                results,
+                imageChanges != null ? imageDiffStrings(imageChanges) : getImageDiffStrings(expectedImages, actualImages),
+                diffImages,
+                identicalPages.size(),
+                pageCount
         );
 
-        String csvPath = CsvReportExporter.exportLineDifferencesToCsv(results, reportPath);
+        progress.stage("exporting csv", 0);
+        String csvPath = CsvReportExporter.exportLineDifferencesToCsv(results, reportPath, gzipCsv);
+
+        ComparisonOutcome outcome = new ComparisonOutcome();
+        outcome.passed = testCasePass;
+        outcome.message = actualMsg;
+        outcome.reportPath = reportPath;
+        outcome.csvPath = csvPath;
+        outcome.outputPath = outputPath;
+        outcome.identicalPages = identicalPages.size();
+        outcome.differences = results;
+        return outcome;
+    }
 
-        return actualMsg + ". PDF report: " + reportPath + " | CSV report: " + csvPath;
+    /** The outcome of a fail-fast comparison stopped at the first differing page. */
+    static ComparisonOutcome stoppedAt(int page) {
+        ComparisonOutcome outcome = new ComparisonOutcome();
+        outcome.passed = false;
+        outcome.message = "❌ TestCase Failed: Differences detected on page " + page + " (stopped at the first difference)";
+        outcome.stoppedAtPage = page;
+        return outcome;
     }
 
-    private List<ExtractedLine> extractAllLineDetails(File pdfFile) throws IOException {
-        List<ExtractedLine> lines = new ArrayList<>();
-        try (PDDocument document = PDDocument.load(pdfFile)) {
-            PDFTextStripper stripper = new PDFTextStripper() {
-                int currentPage = 0;
-                @Override
-                protected void startPage(PDPage page) throws IOException {
-                    super.startPage(page);
-                    currentPage++;
-                }
-                @Override
-                protected void writeString(String text, List<TextPosition> textPositions) throws IOException {
-                    if (!text.trim().isEmpty() && !textPositions.isEmpty()) {
-                        ExtractedLine line = new ExtractedLine();
-                        line.pageNumber = currentPage;
-                        line.lineText = text.trim();
-                        line.fontStyle = textPositions.get(0).getFont().getName();
-                        line.fontSize = String.format("%.1fpt", textPositions.get(0).getFontSizeInPt());
-                        lines.add(line);
-                    }
-                }
-            };
-            stripper.getText(document);
+    /** Pages (1-based) whose content fingerprints match on both sides and need no further comparison. */
+    private Set<Integer> identicalPages(List<String> expected, List<String> actual) {
+        Set<Integer> identical = new HashSet<>();
+        if (expected == null || actual == null) return identical;
+        int pages = Math.min(expected.size(), actual.size());
+        for (int i = 0; i < pages; i++) {
+            if (expected.get(i).equals(actual.get(i))) identical.add(i + 1);
         }
-        return lines;
+        return identical;
     }
 
-    private Map<Integer, String> extractImageResolutionsPerPage(File pdfFile) throws IOException {
-        Map<Integer, String> pageImageRes = new HashMap<>();
-        try (PDDocument document = PDDocument.load(pdfFile)) {
-            int pageNum = 0;
-            for (PDPage page : document.getPages()) {
-                pageNum++;
-                String resolution = "-";
-                for (COSName name : page.getResources().getXObjectNames()) {
-                    if (page.getResources().isImageXObject(name)) {
-                        try {
-                            PDImageXObject image = (PDImageXObject) page.getResources().getXObject(name);
-                            resolution = image.getWidth() + "x" + image.getHeight();
-                            break;
-                        } catch (Exception ignored) {}
-                    }
-                }
-                pageImageRes.put(pageNum, resolution);
-            }
-        }
-        return pageImageRes;
+    private Map<Integer, String> withoutPages(Map<Integer, String> perPage, Set<Integer> pages) {
+        if (pages.isEmpty()) return perPage;
+        Map<Integer, String> filtered = new HashMap<>(perPage);
+        filtered.keySet().removeAll(pages);
+        return filtered;
     }
 
-    /** Returns true if a pixel-diff image screenshot exists for this page **/
-    private boolean hasPixelDiffForPage(File comparisonFolder, int pageNumber) {
-        String diffName = "diffImage-page-" + pageNumber + ".png";
-        return new File(comparisonFolder, diffName).exists();
+    /**
+     * Aligns expected and actual lines page by page (Myers diff on interned line texts) and
+     * returns only the differences: modified, inserted and deleted lines, plus one row for a
+     * page whose images differ while its text does not. An inserted line therefore costs one
+     * row instead of failing every line after it.
+     *
+     * @param imageChanges Image XObject changes per page, or null to judge images by the
+     *                     resolution of each page's first image.
+     */
+    LineDifferences compareAllLines(
+        LineStore expected,
+        LineStore actual,
+        Map<Integer, String> expectedImages,
+        Map<Integer, String> actualImages,
+        Collection<Integer> pixelDiffPages,
+        Map<Integer, List<ImageChange>> imageChanges
+    ) {
+        return compareAllLines(expected, actual, expectedImages, actualImages, pixelDiffPages, imageChanges, 0,
+                Collections.emptySet(), ComparisonProgress.NONE);
     }
 
-    private List<LineComparisonResult> compareAllLines(
-        List<ExtractedLine> expected,
-        List<ExtractedLine> actual,
+    /**
+     * Like {@link #compareAllLines(LineStore, LineStore, Map, Map, Collection, Map)}, reporting the
+     * verdict of every page up to {@code pageCount} not in {@code skipPages} to {@code progress},
+     * including pages without any text.
+     */
+    LineDifferences compareAllLines(
+        LineStore expected,
+        LineStore actual,
         Map<Integer, String> expectedImages,
         Map<Integer, String> actualImages,
-        String comparisonOutputPath
+        Collection<Integer> pixelDiffPages,
+        Map<Integer, List<ImageChange>> imageChanges,
+        int pageCount,
+        Set<Integer> skipPages,
+        ComparisonProgress progress
     ) {
-        List<LineComparisonResult> diffs = new ArrayList<>();
-        int maxLines = Math.max(expected.size(), actual.size());
-        File comparisonFolder = new File(comparisonOutputPath);
-
-        for (int i = 0; i < maxLines; i++) {
-            ExtractedLine e = i < expected.size() ? expected.get(i) : null;
-            ExtractedLine a = i < actual.size() ? actual.get(i) : null;
-            LineComparisonResult comp = new LineComparisonResult();
-
-            comp.pageNumber = (e != null) ? e.pageNumber : (a != null ? a.pageNumber : i + 1);
-            comp.expectedText = (e != null) ? e.lineText : "[Missing Line]";
-            comp.actualText = (a != null) ? a.lineText : "[Extra Line]";
-            comp.expectedFontStyle = (e != null) ? e.fontStyle : "[None]";
-            comp.actualFontStyle = (a != null) ? a.fontStyle : "[None]";
-            comp.expectedFontSize = (e != null) ? e.fontSize : "[None]";
-            comp.actualFontSize = (a != null) ? a.fontSize : "[None]";
-            comp.expectedImage = expectedImages.getOrDefault(comp.pageNumber, "-");
-            comp.actualImage = actualImages.getOrDefault(comp.pageNumber, "-");
-
-            comp.textCompare = safeEquals(comp.expectedText, comp.actualText) ? "PASS" : "FAIL";
-            comp.fontCompare = safeEquals(comp.expectedFontStyle, comp.actualFontStyle) ? "PASS" : "FAIL";
-            comp.fontSizeCompare = safeEquals(comp.expectedFontSize, comp.actualFontSize) ? "PASS" : "FAIL";
-
-            // --- Image comparison logic now considers pixel diff as well as resolution ---
-            boolean diffRes = !safeEquals(comp.expectedImage, comp.actualImage);
-            boolean hasPixelDiff = hasPixelDiffForPage(comparisonFolder, comp.pageNumber);
-            comp.imageCompare = (diffRes || hasPixelDiff) ? "FAIL" : "PASS";
-
-            comp.lineCompare = (comp.textCompare.equals("PASS") && comp.fontCompare.equals("PASS") && comp.fontSizeCompare.equals("PASS")) ? "PASS" : "FAIL";
-            comp.allCompare = (comp.lineCompare.equals("PASS") && comp.imageCompare.equals("PASS")) ? "PASS" : "FAIL";
-            comp.passFail = comp.allCompare.equals("PASS") ? "PASS" : "FAIL";
-
-            StringBuilder details = new StringBuilder("Line " + (i + 1) + ": ");
-            if (!comp.textCompare.equals("PASS")) details.append("Text mismatch; ");
-            if (!comp.fontCompare.equals("PASS")) details.append("Font style mismatch; ");
-            if (!comp.fontSizeCompare.equals("PASS")) details.append("Font size mismatch; ");
-            if (!comp.imageCompare.equals("PASS")) {
-                if (diffRes) details.append("Image resolution mismatch; ");
-                if (hasPixelDiff) details.append("Pixel-level image mismatch—see PDF report screenshot; ");
-            }
+        Map<Integer, int[]> expectedByPage = expected.linesByPage();
+        Map<Integer, int[]> actualByPage = actual.linesByPage();
+        Set<Integer> pixelDiffs = new HashSet<>(pixelDiffPages);
+
+        SortedSet<Integer> pages = new TreeSet<>(expectedByPage.keySet());
+        pages.addAll(actualByPage.keySet());
+        pages.addAll(pixelDiffs);
+        pages.addAll(expectedImages.keySet());
+        pages.addAll(actualImages.keySet());
+        for (int page = 1; page <= pageCount; page++) {
+            if (!skipPages.contains(page)) pages.add(page);
+        }
 
-            details.append(String.format("Expected Text=\"%s\", Actual Text=\"%s\", Expected Font Style=\"%s\", Actual Font Style=\"%s\", Expected Font Size=\"%s\", Actual Font Size=\"%s\", Expected Image=\"%s\", Actual Image=\"%s\"",
-                    comp.expectedText, comp.actualText,
-                    comp.expectedFontStyle, comp.actualFontStyle,
-                    comp.expectedFontSize, comp.actualFontSize,
-                    comp.expectedImage, comp.actualImage));
-            comp.mismatchDetails = details.toString();
-            diffs.add(comp);
+        LineDifferences diffs = new LineDifferences(expectedImages, actualImages);
+        for (int page : pages) {
+            progress.checkCancelled();
+            int before = diffs.size();
+            comparePageLines(page, expected, expectedByPage.getOrDefault(page, NO_LINES),
+                    actual, actualByPage.getOrDefault(page, NO_LINES),
+                    new PageImages(page, expectedImages, actualImages, pixelDiffs.contains(page), imageChanges), diffs);
+            progress.pageCompared(page, diffs, before, diffs.size());
         }
         return diffs;
     }
 
-    private boolean safeEquals(String a, String b) {
-        return Objects.equals(a, b);
+    /**
+     * Page-streaming variant of {@link #compareAllLines} for large documents: extracts
+     * {@code chunkPages} pages of each side at a time, compares them and lets their lines and
+     * images go before the next chunk, so only one chunk of text and images is held in memory.
+     */
+    private LineDifferences compareLinesInChunks(
+        AnalyzedDocument expected,
+        DocumentAnalysis actual,
+        int pageCount,
+        Set<Integer> skipPages,
+        Exclusions exclusions,
+        Collection<Integer> pixelDiffPages,
+        Map<Integer, List<ImageChange>> imageChanges,
+        ComparisonProgress progress
+    ) throws IOException {
+        Set<Integer> pixelDiffs = new HashSet<>(pixelDiffPages);
+        // a baseline is already in memory; only a freshly loaded document is extracted per chunk
+        LineStore baselineLines = expected instanceof DocumentAnalysis ? null : expected.getLines().withoutExcluded(exclusions);
+        Map<Integer, int[]> baselineByPage = baselineLines != null ? baselineLines.linesByPage() : null;
+        int step = Math.max(1, chunkPages);
+
+        progress.stage("comparing lines of page", pageCount);
+        LineDifferences diffs = new LineDifferences(expected.getImageResolutions(), actual.getImageResolutions());
+        for (int from = 1; from <= pageCount; from += step) {
+            progress.checkCancelled();
+            int to = Math.min(pageCount, from + step - 1);
+            LineStore expectedLines = baselineLines;
+            Map<Integer, int[]> expectedByPage = baselineByPage;
+            if (expectedLines == null) {
+                expectedLines = documentAnalyzer.extractRange((DocumentAnalysis) expected, skipPages, exclusions, from, to);
+                progress.count("lines", expectedLines.size());
+                expectedByPage = expectedLines.linesByPage();
+            }
+            LineStore actualLines = documentAnalyzer.extractRange(actual, skipPages, exclusions, from, to);
+            progress.count("lines", actualLines.size());
+            Map<Integer, int[]> actualByPage = actualLines.linesByPage();
+
+            for (int page = from; page <= to; page++) {
+                if (!skipPages.contains(page)) {
+                    // the chunk's images were collected while its text was extracted
+                    if (imageChanges != null) compareImages(page, expected, actual, imageChanges);
+                    int before = diffs.size();
+                    comparePageLines(page, expectedLines, expectedByPage.getOrDefault(page, NO_LINES),
+                            actualLines, actualByPage.getOrDefault(page, NO_LINES),
+                            new PageImages(page, expected.getImageResolutions(), actual.getImageResolutions(), pixelDiffs.contains(page),
+                                    imageChanges),
+                            diffs);
+                    progress.pageCompared(page, diffs, before, diffs.size());
+                }
+                progress.advance();
+            }
+            // only the per-page resolution strings outlive the chunk
+            if (expected instanceof DocumentAnalysis) ((DocumentAnalysis) expected).releaseImages(from, to);
+            actual.releaseImages(from, to);
+        }
+        return diffs;
     }
 
-    private List<String> extractPixelDifferences(String comparisonOutputPath) {
-        List<String> pixelSummary = new ArrayList<>();
-        File folder = new File(comparisonOutputPath);
-
-        File[] diffImages = folder.listFiles((dir, name) -> name.startsWith("diffImage-page") && name.endsWith(".png"));
-        if (diffImages == null || diffImages.length == 0) {
-            pixelSummary.add("No visual differences detected in any page.");
-        } else {
-            pixelSummary.add("Visual differences detected. See annotated images below.");
-            for (File img : diffImages) {
-                String pageNum = img.getName().replace("diffImage-page-", "").replace(".png", "");
-                pixelSummary.add("Page " + pageNum + ": Visual differences detected.");
+    private static final int[] NO_LINES = new int[0];
+
+    /** Compares one page; {@code e} and {@code a} are the page's line indices in {@code expected} and {@code actual}. */
+    private void comparePageLines(int page, LineStore expected, int[] e, LineStore actual, int[] a, PageImages images,
+                                  LineDifferences diffs) {
+        int before = diffs.size();
+        Map<TextKey, Integer> keyIds = new HashMap<>();
+        byte[] script = LineAligner.align(lineKeys(expected, e, keyIds), lineKeys(actual, a, keyIds), maxEditsPerPage);
+        int i = 0, j = 0;
+        int deleteStart = 0, insertStart = 0, deletes = 0, inserts = 0;
+        for (byte op : script) {
+            if (op == LineAligner.DELETE) {
+                if (deletes++ == 0) deleteStart = i;
+                i++;
+            } else if (op == LineAligner.INSERT) {
+                if (inserts++ == 0) insertStart = j;
+                j++;
+            } else {
+                addChangedRun(diffs, expected, e, deleteStart, deletes, actual, a, insertStart, inserts, images);
+                deletes = inserts = 0;
+                // aligned lines have equal text; only font and size can differ
+                int failed = lineFlags(expected, e[i], actual, a[j]);
+                if (failed != 0) {
+                    diffs.add(page, LineDifferences.MODIFIED, failed | images.flags, expected, e[i], i + 1, actual, a[j], j + 1);
+                }
+                i++;
+                j++;
             }
         }
-        return pixelSummary;
+        addChangedRun(diffs, expected, e, deleteStart, deletes, actual, a, insertStart, inserts, images);
+
+        if (diffs.size() == before && images.flags != 0) {
+            diffs.add(page, LineDifferences.IMAGE, images.flags, null, -1, 0, null, -1, 0);
+        }
     }
 
-    private void generateAnnotatedImages(List<String> lineDifferences, String outputPath) throws IOException {
-        File folder = new File(outputPath);
+    /** Pairs a run of deleted and inserted lines positionally as modifications; the surplus stays deleted or inserted. */
+    private void addChangedRun(LineDifferences diffs,
+                               LineStore expected, int[] e, int deleteStart, int deletes,
+                               LineStore actual, int[] a, int insertStart, int inserts,
+                               PageImages images) {
+        int paired = Math.min(deletes, inserts);
+        for (int k = 0; k < paired; k++) {
+            int ei = deleteStart + k, ai = insertStart + k;
+            int failed = lineFlags(expected, e[ei], actual, a[ai]) | images.flags;
+            if (failed != 0) {
+                diffs.add(images.page, LineDifferences.MODIFIED, failed, expected, e[ei], ei + 1, actual, a[ai], ai + 1);
+            }
+        }
+        for (int k = paired; k < deletes; k++) {
+            int ei = deleteStart + k;
+            diffs.add(images.page, LineDifferences.DELETED, LineDifferences.LINE | images.flags, expected, e[ei], ei + 1, null, -1, 0);
+        }
+        for (int k = paired; k < inserts; k++) {
+            int ai = insertStart + k;
+            diffs.add(images.page, LineDifferences.INSERTED, LineDifferences.LINE | images.flags, null, -1, 0, actual, a[ai], ai + 1);
+        }
+    }
 
-        File[] diffImages = folder.listFiles((dir, name) -> name.startsWith("diffImage-page") && name.endsWith(".png"));
-        if (diffImages == null || diffImages.length == 0) return;
+    private static int lineFlags(LineStore expected, int e, LineStore actual, int a) {
+        int failed = 0;
+        if (!expected.sameText(e, actual, a)) failed |= LineDifferences.TEXT;
+        if (!Objects.equals(expected.fontName(e), actual.fontName(a))) failed |= LineDifferences.FONT;
+        if (expected.fontSizeTenths(e) != actual.fontSizeTenths(a)) failed |= LineDifferences.FONT_SIZE;
+        return failed;
+    }
 
-        for (File imgFile : diffImages) {
-            BufferedImage image = ImageIO.read(imgFile);
-            Graphics2D graphics = image.createGraphics();
-            graphics.setColor(Color.RED);
-            graphics.setFont(new Font("Arial", Font.BOLD, 14));
+    private void compareImages(int page, AnalyzedDocument expected, AnalyzedDocument actual,
+                               Map<Integer, List<ImageChange>> imageChanges) {
+        List<ImageChange> changes = imageComparator.comparePage(page,
+                expected.getImages().getOrDefault(page, List.of()), actual.getImages().getOrDefault(page, List.of()));
+        if (!changes.isEmpty()) imageChanges.put(page, changes);
+    }
 
-            int y = 30;
-            for (String diff : lineDifferences) {
-                graphics.drawString(diff, 20, y);
-                y += 20;
-                if (y > image.getHeight() - 30) break;
+    private static class PageImages {
+        final int page;
+        /** IMAGE_RESOLUTION, IMAGE_CONTENT and PIXELS bits for the page. */
+        final int flags;
+
+        PageImages(int page, Map<Integer, String> expectedImages, Map<Integer, String> actualImages, boolean pixelDiffers,
+                   Map<Integer, List<ImageChange>> imageChanges) {
+            this.page = page;
+            int imageFlags = 0;
+            if (imageChanges == null) {
+                if (!Objects.equals(expectedImages.getOrDefault(page, "-"), actualImages.getOrDefault(page, "-"))) {
+                    imageFlags = LineDifferences.IMAGE_RESOLUTION;
+                }
+            } else {
+                for (ImageChange change : imageChanges.getOrDefault(page, List.of())) {
+                    imageFlags |= ImageChange.RESIZED.equals(change.change) ? LineDifferences.IMAGE_RESOLUTION : LineDifferences.IMAGE_CONTENT;
+                }
             }
-            graphics.dispose();
+            this.flags = imageFlags | (pixelDiffers ? LineDifferences.PIXELS : 0);
+        }
+    }
+
+    /** A line's text in its store, hashed and compared in place for interning. */
+    private static final class TextKey {
+        final LineStore store;
+        final int index;
+        final int hash;
+
+        TextKey(LineStore store, int index) {
+            this.store = store;
+            this.index = index;
+            this.hash = store.textHash(index);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
 
-            File annotatedFile = new File(folder, "annotated-" + imgFile.getName());
-            ImageIO.write(image, "png", annotatedFile);
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof TextKey && ((TextKey) other).hash == hash
+                    && store.sameText(index, ((TextKey) other).store, ((TextKey) other).index);
         }
     }
 
+    /** Maps each line text to a dense id so the aligner compares ints and never collides. */
+    private int[] lineKeys(LineStore store, int[] lines, Map<TextKey, Integer> keyIds) {
+        int[] keys = new int[lines.length];
+        for (int i = 0; i < keys.length; i++) {
+            Integer id = keyIds.putIfAbsent(new TextKey(store, lines[i]), keyIds.size());
+            keys[i] = id != null ? id : keyIds.size() - 1;
+        }
+        return keys;
+    }
+
+    private List<String> imageDiffStrings(Map<Integer, List<ImageChange>> imageChanges) {
+        List<String> diffs = new ArrayList<>();
+        for (List<ImageChange> changes : imageChanges.values()) {
+            for (ImageChange change : changes) diffs.add(change.toString());
+        }
+        return diffs;
+    }
+
     private List<String> getImageDiffStrings(Map<Integer, String> expected, Map<Integer, String> actual) {
         List<String> diffs = new ArrayList<>();
         Set<Integer> allPages = new HashSet<>();
@@ -0,0 +1,669 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.util.ExclusionHelper.Exclusions;
+import com.example.pdfcomparator.util.HashingSpooler;
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class PixelComparator {
+
+    private static final Logger log = LoggerFactory.getLogger(PixelComparator.class);
+
+    private static final int EXPECTED_ONLY = 0xFFD20000;
+    private static final int ACTUAL_ONLY = 0xFF00B400;
+    private static final int WHITE = 0xFFFFFFFF;
+    /** Expected, actual and diff raster are alive at the same time, 4 bytes per pixel each. */
+    private static final int BYTES_PER_PIXEL_IN_FLIGHT = 3 * 4;
+    /** Every region re-interprets the page's content, so beyond this many they are rendered as one. */
+    private static final int MAX_REGIONS_PER_PAGE = 8;
+
+    @Value("${pdfcompare.render.dpi:300}")
+    private float dpi;
+
+    @Value("${pdfcompare.render.max-page-bytes:268435456}")
+    private long maxPageBytes;
+
+    @Value("${pdfcompare.render.pages-per-task:8}")
+    private int pagesPerTask;
+
+    @Value("${pdfcompare.render.max-held-diff-bytes:536870912}")
+    private long maxHeldDiffBytes;
+
+    @Value("${pdfcompare.render.tiered.enabled:false}")
+    private boolean tiered;
+
+    @Value("${pdfcompare.render.tiered.coarse-dpi:72}")
+    private float coarseDpi;
+
+    @Value("${pdfcompare.render.tiered.tile-size:16}")
+    private int tileSize;
+
+    private final ForkJoinPool pool;
+
+    public PixelComparator(@Value("${pdfcompare.render.parallelism:0}") int parallelism) {
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /** The work-stealing pool pages are rendered on; batches run their pairs on it too. */
+    ForkJoinPool pool() {
+        return pool;
+    }
+
+    public static class PixelCompareResult {
+        private final Map<Integer, DiffImage> diffImages;
+
+        PixelCompareResult(Map<Integer, DiffImage> diffImages) {
+            this.diffImages = diffImages;
+        }
+
+        public boolean isEqual() {
+            return diffImages.isEmpty();
+        }
+
+        public List<Integer> getDifferentPages() {
+            return new ArrayList<>(diffImages.keySet());
+        }
+
+        /** Diff rasters of the differing pages, by 1-based page number in ascending order. */
+        public Map<Integer, DiffImage> getDiffImages() {
+            return diffImages;
+        }
+    }
+
+    /**
+     * The diff raster of one page, kept in memory for annotation. Pixel ({@code offsetX},
+     * {@code offsetY}) of the page rendered at {@code dpi} is the raster's top-left pixel; it is
+     * not 0 when tiered mode diffed only part of the page. Once the rasters held by a comparison
+     * exceed {@code pdfcompare.render.max-held-diff-bytes}, further ones are written to
+     * {@code spilled} as PNG instead. The plain diff raster is never an artifact of its own: only the
+     * annotated image is kept, and a spill file is deleted once it has been annotated.
+     */
+    public static class DiffImage {
+        public final int page;
+        public final float dpi;
+        public final int offsetX, offsetY;
+        private final BufferedImage raster;
+        private final File spilled;
+
+        DiffImage(int page, float dpi, int offsetX, int offsetY, BufferedImage raster, File spilled) {
+            this.page = page;
+            this.dpi = dpi;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            this.raster = raster;
+            this.spilled = spilled;
+        }
+
+        public BufferedImage raster() throws IOException {
+            if (raster != null) return raster;
+            BufferedImage image = ImageIO.read(spilled);
+            if (image == null) throw new IOException("Cannot read diff image " + spilled);
+            return image;
+        }
+
+        /** Deletes the spill file, if any; the raster cannot be read back afterwards. */
+        void discard() {
+            if (spilled != null && !spilled.delete() && spilled.exists()) {
+                log.debug("Could not delete diff spill file {}", spilled);
+            }
+        }
+    }
+
+    /**
+     * Collects the diff rasters of one comparison, spilling them to disk beyond the memory budget,
+     * and reports each differing page to the progress as soon as it is found.
+     */
+    private class DiffCollector {
+        private final File outputDir;
+        private final ComparisonProgress progress;
+        private final Map<Integer, DiffImage> images = new ConcurrentSkipListMap<>();
+        private final AtomicLong heldBytes = new AtomicLong();
+
+        DiffCollector(File outputDir, ComparisonProgress progress) {
+            this.outputDir = outputDir;
+            this.progress = progress;
+        }
+
+        void add(int pageNumber, BufferedImage diff, float pageDpi, int offsetX, int offsetY) throws IOException {
+            progress.pixelsDiffer(pageNumber);
+            long bytes = (long) diff.getWidth() * diff.getHeight() * 4;
+            if (heldBytes.addAndGet(bytes) <= maxHeldDiffBytes) {
+                images.put(pageNumber, new DiffImage(pageNumber, pageDpi, offsetX, offsetY, diff, null));
+                return;
+            }
+            heldBytes.addAndGet(-bytes);
+            // a scratch name, so it is not mistaken for a report artifact if annotation never runs
+            File file = new File(outputDir, ".diff-spill-page-" + pageNumber + ".png");
+            ImageIO.write(diff, "png", file);
+            images.put(pageNumber, new DiffImage(pageNumber, pageDpi, offsetX, offsetY, null, file));
+        }
+    }
+
+    /** A result for a comparison that rendered nothing. */
+    static PixelCompareResult notRendered() {
+        return new PixelCompareResult(Collections.emptyMap());
+    }
+
+    /** Returns a page source rendering from the analysed document, capped by the per-page memory budget. */
+    public PageSource pages(DocumentAnalysis analysis) {
+        return new DocumentPages(analysis.getSourceFile(), analysis.getDocument(), analysis.getMemoryUsage(), false);
+    }
+
+    /**
+     * Renders and diffs the pages of both sides in parallel page ranges and returns a diff raster
+     * for each page whose pixels differ; rasters beyond the memory budget are spilled to
+     * {@code .diff-spill-page-N.png} in {@code outputPath} until they are annotated.
+     * When the expected side knows a page's pixel hash up front, a matching actual raster is
+     * accepted without materialising the expected one. Pages in {@code skipPages} (1-based) are
+     * known to be identical and are not rendered at all.
+     * <p>
+     * In tiered mode, pages both sides can render in parts are first compared at a coarse DPI;
+     * only the regions around differing tiles are rendered at full DPI, and the diff image covers
+     * just those regions.
+     */
+    public PixelCompareResult compare(PageSource expected, PageSource actual, String outputPath,
+                                      Set<Integer> skipPages, ComparisonProgress progress) throws IOException {
+        return compare(expected, actual, outputPath, skipPages, Exclusions.NONE, progress);
+    }
+
+    /** Like {@link #compare(PageSource, PageSource, String, Set, ComparisonProgress)}, blanking excluded regions on both sides first. */
+    public PixelCompareResult compare(PageSource expected, PageSource actual, String outputPath, Set<Integer> skipPages,
+                                      Exclusions exclusions, ComparisonProgress progress) throws IOException {
+        File outputDir = new File(outputPath);
+        if (!outputDir.exists() && !outputDir.mkdirs()) {
+            throw new IOException("Failed to create comparison output directory: " + outputPath);
+        }
+
+        int pageCount = Math.max(expected.getPageCount(), actual.getPageCount());
+        DiffCollector diffs = new DiffCollector(outputDir, progress);
+        progress.stage("rendering page", pageCount);
+
+        if (pool.getParallelism() == 1 || pageCount <= pagesPerTask) {
+            comparePages(expected, actual, 0, pageCount, skipPages, exclusions, diffs, progress);
+        } else {
+            try (WorkerCopies copies = new WorkerCopies(expected, actual)) {
+                PageRangeTask task = new PageRangeTask(copies, 0, pageCount, skipPages, exclusions, diffs, progress);
+                try {
+                    if (ForkJoinTask.getPool() == pool) {
+                        // a batch pair running on this pool: fork its page ranges here so idle workers steal them
+                        task.invoke();
+                    } else {
+                        pool.invoke(task);
+                    }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                progress.count("render.worker-copies", copies.opened.size() / 2);
+            }
+        }
+        return new PixelCompareResult(diffs.images);
+    }
+
+    /**
+     * Document copies for the render workers of one comparison. A page range takes an idle pair
+     * or opens a new one and hands it back when done, so each side is parsed once per worker
+     * that takes part rather than once per range. All copies are closed when the comparison ends.
+     */
+    private static class WorkerCopies implements Closeable {
+        private final PageSource expected, actual;
+        private final Deque<PageSource[]> idle = new ConcurrentLinkedDeque<>();
+        private final Queue<PageSource> opened = new ConcurrentLinkedQueue<>();
+
+        WorkerCopies(PageSource expected, PageSource actual) {
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        PageSource[] take() throws IOException {
+            PageSource[] pair = idle.pollFirst();
+            if (pair != null) return pair;
+            PageSource expectedCopy = expected.forWorker();
+            opened.add(expectedCopy);
+            PageSource actualCopy = actual.forWorker();
+            opened.add(actualCopy);
+            return new PageSource[]{expectedCopy, actualCopy};
+        }
+
+        void giveBack(PageSource[] pair) {
+            idle.addFirst(pair);
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (PageSource copy : opened) {
+                try {
+                    copy.close();
+                } catch (IOException e) {
+                    if (failure == null) failure = e;
+                }
+            }
+            if (failure != null) throw failure;
+        }
+    }
+
+    private class PageRangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final WorkerCopies copies;
+        private final int from, to;
+        private final Set<Integer> skipPages;
+        private final Exclusions exclusions;
+        private final DiffCollector diffs;
+        private final ComparisonProgress progress;
+
+        PageRangeTask(WorkerCopies copies, int from, int to, Set<Integer> skipPages,
+                      Exclusions exclusions, DiffCollector diffs, ComparisonProgress progress) {
+            this.copies = copies;
+            this.from = from;
+            this.to = to;
+            this.skipPages = skipPages;
+            this.exclusions = exclusions;
+            this.diffs = diffs;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > pagesPerTask) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PageRangeTask(copies, from, mid, skipPages, exclusions, diffs, progress),
+                        new PageRangeTask(copies, mid, to, skipPages, exclusions, diffs, progress));
+                return;
+            }
+            progress.checkCancelled();
+            if (allSkipped()) {
+                for (int i = from; i < to; i++) progress.advance();
+                return;
+            }
+            try {
+                PageSource[] pair = copies.take();
+                try {
+                    comparePages(pair[0], pair[1], from, to, skipPages, exclusions, diffs, progress);
+                } finally {
+                    copies.giveBack(pair);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /** Avoids taking document copies for a range whose pages are all known to be identical. */
+        private boolean allSkipped() {
+            for (int i = from; i < to; i++) {
+                if (!skipPages.contains(i + 1)) return false;
+            }
+            return true;
+        }
+    }
+
+    private void comparePages(PageSource expected, PageSource actual, int from, int to, Set<Integer> skipPages,
+                              Exclusions exclusions, DiffCollector diffs, ComparisonProgress progress) throws IOException {
+        for (int i = from; i < to; i++) {
+            progress.checkCancelled();
+            if (skipPages.contains(i + 1)) {
+                progress.advance();
+                continue;
+            }
+            float pageDpi = renderDpi(expected, actual, i);
+            List<Rectangle2D.Float> excluded = exclusions.regions(i + 1);
+            if (tiered && expected.rendersRegions() && actual.rendersRegions()
+                    && i < expected.getPageCount() && i < actual.getPageCount()
+                    && compareTiered(expected, actual, i, pageDpi, excluded, diffs, progress)) {
+                progress.advance();
+                continue;
+            }
+            BufferedImage actualImage = i < actual.getPageCount() ? actual.render(i, pageDpi) : null;
+
+            String knownHash = i < expected.getPageCount() ? expected.getPixelHash(i) : null;
+            if (knownHash != null && actualImage != null && knownHash.equals(pixelHash(actualImage))) {
+                progress.advance();
+                continue;
+            }
+
+            BufferedImage expectedImage = i < expected.getPageCount() ? expected.render(i, pageDpi) : null;
+            blank(expectedImage, excluded, pageDpi, 0, 0);
+            blank(actualImage, excluded, pageDpi, 0, 0);
+            BufferedImage diffImage = diffPage(expectedImage, actualImage);
+            if (diffImage != null) diffs.add(i + 1, diffImage, pageDpi, 0, 0);
+            progress.advance();
+        }
+    }
+
+    /**
+     * The DPI both sides render a page at: that of a side with stored rasters, such as a
+     * baseline, so both rasters have the same scale; otherwise the lower of the two, which keeps
+     * an oversized page within the render budget on both sides.
+     */
+    private static float renderDpi(PageSource expected, PageSource actual, int pageIndex) {
+        if (expected.hasFixedDpi() && pageIndex < expected.getPageCount()) return expected.getDpi(pageIndex);
+        if (actual.hasFixedDpi() && pageIndex < actual.getPageCount()) return actual.getDpi(pageIndex);
+        return Math.min(expected.getDpi(pageIndex), actual.getDpi(pageIndex));
+    }
+
+    /**
+     * Compares page {@code pageIndex} at the coarse DPI tile by tile and renders only the regions
+     * around differing tiles at {@code pageDpi}. Returns false, leaving the page to the full
+     * comparison, when the coarse rasters differ in size.
+     */
+    private boolean compareTiered(PageSource expected, PageSource actual, int pageIndex, float pageDpi,
+                                  List<Rectangle2D.Float> excluded, DiffCollector diffs, ComparisonProgress progress) throws IOException {
+        float coarse = Math.min(coarseDpi, pageDpi);
+        BufferedImage expectedCoarse = expected.render(pageIndex, coarse);
+        BufferedImage actualCoarse = actual.render(pageIndex, coarse);
+        if (expectedCoarse.getWidth() != actualCoarse.getWidth() || expectedCoarse.getHeight() != actualCoarse.getHeight()) {
+            return false;
+        }
+        blank(expectedCoarse, excluded, coarse, 0, 0);
+        blank(actualCoarse, excluded, coarse, 0, 0);
+        List<Rectangle> regions = differingRegions(expectedCoarse, actualCoarse, tileSize);
+        if (regions.isEmpty()) return true;
+        progress.count("render.regions", regions.size());
+
+        double scale = pageDpi / coarse;
+        int pageWidth = (int) Math.ceil(expectedCoarse.getWidth() * scale);
+        int pageHeight = (int) Math.ceil(expectedCoarse.getHeight() * scale);
+        List<Rectangle> differing = new ArrayList<>();
+        List<BufferedImage> regionDiffs = new ArrayList<>();
+        Rectangle bounds = null;
+        for (Rectangle region : regions) {
+            // a coarse pixel of margin takes in anti-aliasing that spills over the tile edge
+            int x0 = Math.max(0, (int) Math.floor((region.x - 1) * scale));
+            int y0 = Math.max(0, (int) Math.floor((region.y - 1) * scale));
+            int x1 = Math.min(pageWidth, (int) Math.ceil((region.x + region.width + 1) * scale));
+            int y1 = Math.min(pageHeight, (int) Math.ceil((region.y + region.height + 1) * scale));
+            Rectangle fine = new Rectangle(x0, y0, x1 - x0, y1 - y0);
+
+            BufferedImage expectedRegion = expected.renderRegion(pageIndex, pageDpi, fine);
+            BufferedImage actualRegion = actual.renderRegion(pageIndex, pageDpi, fine);
+            blank(expectedRegion, excluded, pageDpi, fine.x, fine.y);
+            blank(actualRegion, excluded, pageDpi, fine.x, fine.y);
+            BufferedImage diff = diffPage(expectedRegion, actualRegion);
+            if (diff != null) {
+                differing.add(fine);
+                regionDiffs.add(diff);
+                bounds = bounds == null ? new Rectangle(fine) : bounds.union(fine);
+            }
+        }
+        if (bounds == null) return true;
+
+        BufferedImage diffImage = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = diffImage.createGraphics();
+        graphics.setBackground(Color.WHITE);
+        graphics.clearRect(0, 0, bounds.width, bounds.height);
+        for (int r = 0; r < regionDiffs.size(); r++) {
+            graphics.drawImage(regionDiffs.get(r), differing.get(r).x - bounds.x, differing.get(r).y - bounds.y, null);
+        }
+        graphics.dispose();
+        diffs.add(pageIndex + 1, diffImage, pageDpi, bounds.x, bounds.y);
+        return true;
+    }
+
+    /**
+     * Paints excluded regions (points, top-left origin) white in a raster rendered at {@code dpi}
+     * whose top-left pixel is ({@code offsetX}, {@code offsetY}) of the full page.
+     */
+    private static void blank(BufferedImage image, List<Rectangle2D.Float> regions, float dpi, int offsetX, int offsetY) {
+        if (image == null || regions.isEmpty()) return;
+        double scale = dpi / 72.0;
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        for (Rectangle2D.Float region : regions) {
+            int x0 = (int) Math.floor(region.x * scale) - offsetX;
+            int y0 = (int) Math.floor(region.y * scale) - offsetY;
+            int x1 = (int) Math.ceil((region.x + region.width) * scale) - offsetX;
+            int y1 = (int) Math.ceil((region.y + region.height) * scale) - offsetY;
+            graphics.fillRect(x0, y0, x1 - x0, y1 - y0);
+        }
+        graphics.dispose();
+    }
+
+    /**
+     * Bounding boxes, in pixels of the given equally sized rasters, of 8-connected groups of
+     * {@code tile}-sized tiles that contain a differing pixel.
+     */
+    static List<Rectangle> differingRegions(BufferedImage expected, BufferedImage actual, int tile) {
+        int width = expected.getWidth(), height = expected.getHeight();
+        int cols = (width + tile - 1) / tile, rows = (height + tile - 1) / tile;
+        boolean[] dirty = new boolean[cols * rows];
+        int[] expectedRow = new int[width];
+        int[] actualRow = new int[width];
+        for (int y = 0; y < height; y++) {
+            readRow(expected, y, expectedRow);
+            readRow(actual, y, actualRow);
+            int rowBase = (y / tile) * cols;
+            for (int x = 0; x < width; x++) {
+                if (expectedRow[x] != actualRow[x]) {
+                    dirty[rowBase + x / tile] = true;
+                    x = (x / tile + 1) * tile - 1;
+                }
+            }
+        }
+
+        List<Rectangle> regions = new ArrayList<>();
+        int[] stack = new int[cols * rows];
+        for (int start = 0; start < dirty.length; start++) {
+            if (!dirty[start]) continue;
+            dirty[start] = false;
+            int top = 0;
+            stack[top++] = start;
+            int minCol = cols, minRow = rows, maxCol = -1, maxRow = -1;
+            while (top > 0) {
+                int cell = stack[--top];
+                int col = cell % cols, row = cell / cols;
+                minCol = Math.min(minCol, col);
+                maxCol = Math.max(maxCol, col);
+                minRow = Math.min(minRow, row);
+                maxRow = Math.max(maxRow, row);
+                for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+                    for (int c = Math.max(0, col - 1); c <= Math.min(cols - 1, col + 1); c++) {
+                        if (dirty[r * cols + c]) {
+                            dirty[r * cols + c] = false;
+                            stack[top++] = r * cols + c;
+                        }
+                    }
+                }
+            }
+            int x = minCol * tile, y = minRow * tile;
+            regions.add(new Rectangle(x, y, Math.min(width, (maxCol + 1) * tile) - x, Math.min(height, (maxRow + 1) * tile) - y));
+        }
+
+        if (regions.size() > MAX_REGIONS_PER_PAGE) {
+            Rectangle bounds = new Rectangle(regions.get(0));
+            for (Rectangle region : regions) bounds = bounds.union(region);
+            return List.of(bounds);
+        }
+        return regions;
+    }
+
+    private class DocumentPages implements PageSource {
+        private final File sourceFile;
+        private final PDDocument document;
+        private final MemoryUsageSetting memoryUsage;
+        private final boolean ownsDocument;
+        private final PDFRenderer renderer;
+
+        DocumentPages(File sourceFile, PDDocument document, MemoryUsageSetting memoryUsage, boolean ownsDocument) {
+            this.sourceFile = sourceFile;
+            this.document = document;
+            this.memoryUsage = memoryUsage;
+            this.ownsDocument = ownsDocument;
+            this.renderer = new PDFRenderer(document);
+        }
+
+        @Override
+        public int getPageCount() {
+            return document.getNumberOfPages();
+        }
+
+        @Override
+        public float getDpi(int pageIndex) {
+            if (pageIndex >= document.getNumberOfPages()) return Float.POSITIVE_INFINITY;
+            return dpiWithinBudget(document.getPage(pageIndex).getCropBox(), pageIndex);
+        }
+
+        @Override
+        public BufferedImage render(int pageIndex, float dpi) throws IOException {
+            return renderer.renderImageWithDPI(pageIndex, dpi, ImageType.RGB);
+        }
+
+        /** Draws the page into a region-sized raster; Java2D only rasterises what falls inside it. */
+        @Override
+        public BufferedImage renderRegion(int pageIndex, float dpi, Rectangle region) throws IOException {
+            BufferedImage image = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = image.createGraphics();
+            try {
+                graphics.setBackground(Color.WHITE);
+                graphics.clearRect(0, 0, region.width, region.height);
+                graphics.translate(-region.x, -region.y);
+                renderer.renderPageToGraphics(pageIndex, graphics, dpi / 72f);
+            } finally {
+                graphics.dispose();
+            }
+            return image;
+        }
+
+        @Override
+        public boolean rendersRegions() {
+            return true;
+        }
+
+        @Override
+        public PageSource forWorker() throws IOException {
+            if (pool.getParallelism() == 1) return new DocumentPages(sourceFile, document, memoryUsage, false);
+            return new DocumentPages(sourceFile, PDDocument.load(sourceFile, memoryUsage), memoryUsage, true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (ownsDocument) document.close();
+        }
+    }
+
+    /** Lowers the render DPI of oversized pages so the rasters of one page stay within {@code maxPageBytes}. */
+    private float dpiWithinBudget(PDRectangle box, int pageIndex) {
+        double scale = dpi / 72.0;
+        double bytes = box.getWidth() * scale * box.getHeight() * scale * BYTES_PER_PIXEL_IN_FLIGHT;
+        if (bytes <= maxPageBytes) return dpi;
+
+        float reduced = (float) (dpi * Math.sqrt(maxPageBytes / bytes));
+        log.warn("Page {} exceeds the per-page render budget of {} bytes, rendering at {} DPI instead of {}",
+                pageIndex + 1, maxPageBytes, Math.round(reduced), Math.round(dpi));
+        return reduced;
+    }
+
+    /** SHA-256 over the opaque RGB pixels of a raster, independent of how the raster is encoded. */
+    public static String pixelHash(BufferedImage image) {
+        MessageDigest digest = HashingSpooler.sha256();
+        int width = image.getWidth();
+        int[] row = new int[width];
+        ByteBuffer bytes = ByteBuffer.allocate(width * 4 + 8);
+        bytes.putInt(width).putInt(image.getHeight());
+        digest.update(bytes.array(), 0, 8);
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            bytes.clear();
+            for (int rgb : row) bytes.putInt(rgb | 0xFF000000);
+            digest.update(bytes.array(), 0, width * 4);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /** Returns a highlighted diff raster, or null when both rasters are pixel-identical. */
+    static BufferedImage diffPage(BufferedImage expected, BufferedImage actual) {
+        int width = Math.max(width(expected), width(actual));
+        int height = Math.max(height(expected), height(actual));
+        BufferedImage diff = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] expectedRow = new int[width];
+        int[] actualRow = new int[width];
+        int[] diffRow = new int[width];
+        boolean different = false;
+
+        for (int y = 0; y < height; y++) {
+            readRow(expected, y, expectedRow);
+            readRow(actual, y, actualRow);
+            for (int x = 0; x < width; x++) {
+                int e = expectedRow[x];
+                int a = actualRow[x];
+                if (e == a) {
+                    diffRow[x] = fade(e);
+                } else {
+                    different = true;
+                    diffRow[x] = luminance(e) < luminance(a) ? EXPECTED_ONLY : ACTUAL_ONLY;
+                }
+            }
+            diff.setRGB(0, y, width, 1, diffRow, 0, width);
+        }
+        return different ? diff : null;
+    }
+
+    /** Fills {@code row} with opaque pixels of line {@code y}, padding with white beyond the image bounds. */
+    private static void readRow(BufferedImage image, int y, int[] row) {
+        int filled = 0;
+        if (image != null && y < image.getHeight()) {
+            filled = Math.min(image.getWidth(), row.length);
+            image.getRGB(0, y, filled, 1, row, 0, filled);
+            for (int x = 0; x < filled; x++) row[x] |= 0xFF000000;
+        }
+        for (int x = filled; x < row.length; x++) row[x] = WHITE;
+    }
+
+    private static int width(BufferedImage image) {
+        return image != null ? image.getWidth() : 0;
+    }
+
+    private static int height(BufferedImage image) {
+        return image != null ? image.getHeight() : 0;
+    }
+
+    private static int luminance(int rgb) {
+        return (((rgb >> 16) & 0xFF) * 299 + ((rgb >> 8) & 0xFF) * 587 + (rgb & 0xFF) * 114) / 1000;
+    }
+
+    private static int fade(int rgb) {
+        int grey = 255 - (255 - luminance(rgb)) / 4;
+        return 0xFF000000 | (grey << 16) | (grey << 8) | grey;
+    }
+}
@@ -1,37 +1,70 @@
 package com.example.pdfcomparator.service;
+import com.example.pdfcomparator.util.ImageFiles;
+import com.example.pdfcomparator.util.UniquePaths;
 import com.itextpdf.io.image.ImageDataFactory;
 import com.itextpdf.kernel.colors.ColorConstants;
 import com.itextpdf.kernel.pdf.PdfDocument;
 import com.itextpdf.kernel.pdf.PdfWriter;
 import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.Cell;
 import com.itextpdf.layout.element.Image;
 import com.itextpdf.layout.element.Paragraph;
+import com.itextpdf.layout.element.Table;
 import com.itextpdf.layout.element.Text;
+import com.itextpdf.layout.properties.UnitValue;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 public class ReportService {
 
-    public String generateReport(String expected, String actual, String comparisonPath,
-                                 List<String> textDifferences, List<String> pixelSummaries,
-                                 List<String> imageDifferences) throws IOException {
+    private static final String[] COLUMN_HEADERS = {"Line (exp / act)", "Change", "Failed checks", "Expected", "Actual"};
+    private static final float[] COLUMN_WIDTHS = {9, 9, 22, 30, 30};
 
-        final String dir = System.getProperty("user.home") + "/OneDrive - LTIMindtree/Desktop/TestResult/PDFReports";
+    @Value("${pdfcompare.report.max-rows-per-page:50}")
+    private int maxRowsPerPage;
+
+    @Value("${pdfcompare.report.max-rows:5000}")
+    private int maxRows;
+
+    @Value("${pdfcompare.report.max-images:50}")
+    private int maxImages;
+
+    @Value("${pdfcompare.report.image-width:1000}")
+    private int imageWidth;
+
+    @Value("${pdfcompare.report.image-quality:0.8}")
+    private float imageQuality;
+
+    /**
+     * Writes the PDF report. Elements are laid out and their pages flushed to the file as they are
+     * added, and at most {@code max-rows-per-page} line differences per page and {@code max-rows}
+     * overall are listed, so the report's size and heap use stay bounded however many lines differ.
+     *
+     * @param dir Comparison's output directory the report is written to.
+     * @param diffImages Annotated diff image per differing page; embedded scaled down.
+     */
+    public String generateReport(String dir, String expected, String actual, LineDifferences differences,
+                                 List<String> imageDifferences, Map<Integer, File> diffImages,
+                                 int identicalPages, int totalPages) throws IOException {
         File reportFolder = new File(dir);
         if (!reportFolder.exists() && !reportFolder.mkdirs()) {
             throw new IOException("Cannot create report directory: " + dir);
         }
 
         String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-        String reportPath = dir + "/ComparisonReport_" + timestamp + ".pdf";
+        String reportPath = UniquePaths.createFile(dir + "/ComparisonReport_" + timestamp, ".pdf");
 
         try (FileOutputStream fos = new FileOutputStream(reportPath);
              PdfWriter writer = new PdfWriter(fos);
@@ -42,7 +75,8 @@ public class ReportService {
             doc.add(new Paragraph("Timestamp: " + timestamp));
             doc.add(new Paragraph("Expected result: " + expected));
             doc.add(new Paragraph("Actual result: " + actual));
-//            doc.add(new Paragraph("Comparison path: " + comparisonPath));
+            doc.add(new Paragraph("Pages identical at content-stream level (not rendered or extracted): "
+                    + identicalPages + " of " + totalPages));
 
             // Pass/Fail status
             boolean passed = actual.toLowerCase().contains("pass");
@@ -52,90 +86,124 @@ public class ReportService {
                     .setFontSize(14);
             doc.add(new Paragraph("Test case status: ").setBold().setFontSize(15).add(statusText).setBackgroundColor(ColorConstants.GREEN));
 
-            // Text differences with highlighted mismatches
+            // Text differences, one table per page
             doc.add(new Paragraph("\nText and Font Differences:").setBold().setFontSize(14));
-            if (textDifferences != null && !textDifferences.isEmpty()) {
-                for (String diff : textDifferences) {
-                    if (diff.contains("Expected Text=\"") && diff.contains("Actual Text=\"")) {
-                        try {
-                            int es = diff.indexOf("Expected Text=\"") + 15;
-                            int ee = diff.indexOf("\"", es);
-                            int as = diff.indexOf("Actual Text=\"") + 13;
-                            int ae = diff.indexOf("\"", as);
-
-                            Paragraph p = new Paragraph();
-                            p.add(new Text(diff.substring(0, es - 15)).setBackgroundColor(ColorConstants.RED));
-                            p.add(new Text(diff.substring(es, ee)).setBackgroundColor(ColorConstants.YELLOW));
-                            p.add(new Text(diff.substring(ee, as - 13)));
-                            p.add(new Text(diff.substring(as, ae)).setBackgroundColor(ColorConstants.YELLOW));
-                            p.add(new Text(diff.substring(ae)));
-                            doc.add(p);
-                        } catch (Exception ex) {
-                            doc.add(new Paragraph(diff)); // fallback: no highlighting
-                        }
-                    } else {
-                        doc.add(new Paragraph(diff));
-                    }
-                }
+            if (differences != null && !differences.isEmpty()) {
+                addLineDifferences(doc, differences);
             } else {
                 doc.add(new Paragraph("No text or font differences found."));
             }
 
-            // Pixel differences summary
-//            doc.add(new Paragraph("\nPixel-level Differences Summary:").setBold().setFontSize(14));
-//            if (pixelSummaries != null && !pixelSummaries.isEmpty()) {
-//                for (String line : pixelSummaries) {
-//                    doc.add(new Paragraph(line));
-//                }
-//            } else {
-//                doc.add(new Paragraph("No pixel-level differences detected."));
-//            }
-
-            // Image resolution differences (highlighted in yellow)
-            doc.add(new Paragraph("\nImage Resolution Differences:").setBold().setFontSize(14));
+            // Image differences (highlighted in yellow)
+            doc.add(new Paragraph("\nImage Differences:").setBold().setFontSize(14));
             if (imageDifferences != null && !imageDifferences.isEmpty()) {
-                for (String diff : imageDifferences) {
+                int shown = Math.min(imageDifferences.size(), maxRows);
+                for (String diff : imageDifferences.subList(0, shown)) {
                     doc.add(new Paragraph(diff).setBackgroundColor(ColorConstants.YELLOW));
                 }
+                if (shown < imageDifferences.size()) {
+                    doc.add(new Paragraph((imageDifferences.size() - shown) + " more image differences not shown.").setItalic());
+                }
             } else {
                 doc.add(new Paragraph("No image resolution differences found."));
             }
 
-            // Pixel diff images: embed and caption each one per page
-//            File comparisonFolder = new File(comparisonPath);
-//            File[] diffImages = comparisonFolder.listFiles((f, name) ->
-//                    name.startsWith("diffImage-page") && name.endsWith(".png"));
-//            if (diffImages != null && diffImages.length > 0) {
-//                Arrays.sort(diffImages, Comparator.comparing(File::getName));
-//                doc.add(new Paragraph("\nPixel Difference Images:").setBold().setFontSize(14));
-//                for (File imgFile : diffImages) {
-//                    String pageNum = imgFile.getName().replace("diffImage-page-", "").replace(".png", "");
-//                    doc.add(new Paragraph("Page " + pageNum + " - Image mismatch detected, see below").setFontColor(ColorConstants.RED));
-//                    Image img = new Image(ImageDataFactory.create(imgFile.getAbsolutePath()));
-//                    img.setAutoScale(true);
-//                    doc.add(img);
-//                }
-//                doc.add(new Paragraph("Please review the above images for detailed pixel-level differences."));
-//            } else {
-//                doc.add(new Paragraph("\nNo pixel difference images detected."));
-//            }
-
-            // Annotated text difference images (if any)
-//            File[] annotatedImages = comparisonFolder.listFiles((f, name) ->
-//                    name.startsWith("annotated-") && name.endsWith(".png"));
-//            if (annotatedImages != null && annotatedImages.length > 0) {
-//                doc.add(new Paragraph("\nAnnotated Images (Text Differences Highlighted):").setBold().setFontSize(14));
-//                for (File imgFile : annotatedImages) {
-//                    doc.add(new Paragraph(imgFile.getName()));
-//                    Image img = new Image(ImageDataFactory.create(imgFile.getAbsolutePath()));
-//                    img.setAutoScale(true);
-//                    doc.add(img);
-//                }
-//            }
+            // Pixel diff images, scaled down, with the differing lines boxed
+            if (diffImages != null && !diffImages.isEmpty()) {
+                doc.add(new Paragraph("\nPixel Difference Images:").setBold().setFontSize(14));
+                int shown = 0;
+                for (Map.Entry<Integer, File> diffImage : diffImages.entrySet()) {
+                    if (shown++ == maxImages) break;
+                    doc.add(new Paragraph("Page " + diffImage.getKey() + " - Image mismatch detected, see below").setFontColor(ColorConstants.RED));
+                    Image img = new Image(ImageDataFactory.create(scaledJpeg(diffImage.getValue())));
+                    img.setAutoScale(true);
+                    doc.add(img);
+                }
+                if (diffImages.size() > maxImages) {
+                    doc.add(new Paragraph((diffImages.size() - maxImages)
+                            + " more pages differ at pixel level; their annotated images are in the comparison output folder.").setItalic());
+                }
+                doc.add(new Paragraph("Please review the above images for detailed pixel-level differences."));
+            } else {
+                doc.add(new Paragraph("\nNo pixel difference images detected."));
+            }
 
             doc.close();
         }
 
         return reportPath;
     }
+
+    /**
+     * Adds the rows of each page as a table, up to {@code maxRowsPerPage} per page and
+     * {@code maxRows} in total; what is left out is counted instead.
+     */
+    private void addLineDifferences(Document doc, LineDifferences differences) {
+        int rows = differences.size();
+        int written = 0;
+        int row = 0;
+        while (row < rows && written < maxRows) {
+            int page = differences.page(row);
+            int end = row;
+            while (end < rows && differences.page(end) == page) end++;
+
+            int shown = Math.min(Math.min(end - row, maxRowsPerPage), maxRows - written);
+            doc.add(new Paragraph("Page " + page + ": " + (end - row) + (end - row == 1 ? " difference" : " differences"))
+                    .setBold().setFontSize(12));
+            Table table = new Table(UnitValue.createPercentArray(COLUMN_WIDTHS)).useAllAvailableWidth().setFixedLayout().setFontSize(8);
+            for (String header : COLUMN_HEADERS) {
+                table.addHeaderCell(new Cell().add(new Paragraph(header).setBold()).setBackgroundColor(ColorConstants.LIGHT_GRAY));
+            }
+            for (int r = row; r < row + shown; r++) {
+                addRow(table, differences, r);
+            }
+            doc.add(table);
+            if (shown < end - row) {
+                doc.add(new Paragraph((end - row - shown) + " more differences on page " + page + " are listed in the CSV export.")
+                        .setItalic().setFontSize(9));
+            }
+            written += shown;
+            row = end;
+        }
+        if (row < rows) {
+            Set<Integer> pages = new HashSet<>();
+            for (int r = row; r < rows; r++) pages.add(differences.page(r));
+            doc.add(new Paragraph((rows - row) + " more differences on " + pages.size()
+                    + " further pages are listed in the CSV export.").setItalic());
+        }
+    }
+
+    private static void addRow(Table table, LineDifferences differences, int row) {
+        int failed = differences.flags(row);
+        table.addCell(lineNumber(differences.expectedLineNumber(row)) + " / " + lineNumber(differences.actualLineNumber(row)));
+        table.addCell(differences.changeType(row));
+        table.addCell(differences.failedChecks(row));
+        boolean imageRow = "IMAGE".equals(differences.changeType(row));
+        table.addCell(side(differences.expectedText(row), imageRow ? differences.expectedImage(row)
+                : differences.expectedFontStyle(row) + ", " + differences.expectedFontSize(row), failed, imageRow));
+        table.addCell(side(differences.actualText(row), imageRow ? differences.actualImage(row)
+                : differences.actualFontStyle(row) + ", " + differences.actualFontSize(row), failed, imageRow));
+    }
+
+    private static String lineNumber(int lineNumber) {
+        return lineNumber > 0 ? Integer.toString(lineNumber) : "-";
+    }
+
+    /** A line's text and font, with the parts that differ highlighted. */
+    private static Cell side(CharSequence text, String details, int failed, boolean imageRow) {
+        Text textPart = new Text(text.toString());
+        if ((failed & LineDifferences.TEXT) != 0) textPart.setBackgroundColor(ColorConstants.YELLOW);
+        Text detailsPart = new Text(details).setFontSize(7).setFontColor(ColorConstants.DARK_GRAY);
+        int highlighted = imageRow ? LineDifferences.IMAGES : LineDifferences.FONT | LineDifferences.FONT_SIZE;
+        if ((failed & highlighted) != 0) detailsPart.setBackgroundColor(ColorConstants.YELLOW);
+        return new Cell().add(new Paragraph(textPart)).add(new Paragraph(detailsPart));
+    }
+
+    /** The image downscaled to {@code imageWidth} pixels and encoded as JPEG, so the report does not carry full-resolution rasters. */
+    private byte[] scaledJpeg(File file) throws IOException {
+        BufferedImage image = ImageFiles.readScaled(file, imageWidth);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageFiles.writeJpeg(image, bytes, imageQuality);
+        return bytes.toByteArray();
+    }
 }
@@ -0,0 +1,284 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.service.PdfService.ComparisonOutcome;
+import com.example.pdfcomparator.util.HashingSpooler;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of finished comparisons. Entries are keyed by the SHA-256 of both
+ * uploads plus the comparison options and point at the artifacts the original run produced.
+ * <p>
+ * Each entry is one small properties file; its modification time is the last access, so the
+ * LRU order survives restarts. When the artifacts of all entries exceed the byte budget, the
+ * least recently used entries are evicted together with their report, CSV and output folder.
+ */
+@Service
+public class ResultCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ResultCache.class);
+    private static final String ENTRY_SUFFIX = ".properties";
+
+    @Value("${pdfcompare.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${pdfcompare.cache.dir:${user.home}/.pdf-comparator/result-cache}")
+    private String cacheDir;
+
+    @Value("${pdfcompare.cache.max-bytes:10737418240}")
+    private long maxBytes;
+
+    @Value("${pdfcompare.render.enabled:true}")
+    private boolean renderEnabled;
+
+    @Value("${pdfcompare.render.dpi:300}")
+    private float dpi;
+
+    @Value("${pdfcompare.render.max-page-bytes:268435456}")
+    private long maxPageBytes;
+
+    @Value("${pdfcompare.render.tiered.enabled:false}")
+    private boolean tiered;
+
+    @Value("${pdfcompare.render.tiered.coarse-dpi:72}")
+    private float coarseDpi;
+
+    @Value("${pdfcompare.render.tiered.tile-size:16}")
+    private int tileSize;
+
+    @Value("${pdfcompare.images.max-hash-distance:8}")
+    private int maxHashDistance;
+
+    @Value("${pdfcompare.lines.max-edits-per-page:2000}")
+    private int maxEditsPerPage;
+
+    @Value("${pdfcompare.report.max-rows-per-page:50}")
+    private int reportMaxRowsPerPage;
+
+    @Value("${pdfcompare.report.max-rows:5000}")
+    private int reportMaxRows;
+
+    @Value("${pdfcompare.report.max-images:50}")
+    private int reportMaxImages;
+
+    @Value("${pdfcompare.report.image-width:1000}")
+    private int reportImageWidth;
+
+    @Value("${pdfcompare.report.image-quality:0.8}")
+    private float reportImageQuality;
+
+    @Value("${pdfcompare.annotate.format:png}")
+    private String annotateFormat;
+
+    @Value("${pdfcompare.annotate.jpeg-quality:0.85}")
+    private float annotateJpegQuality;
+
+    @Value("${pdfcompare.annotate.max-width:0}")
+    private int annotateMaxWidth;
+
+    @Value("${pdfcompare.csv.gzip:false}")
+    private boolean csvGzip;
+
+    /**
+     * The settings that change what a comparison finds or what its report, diff images and CSV
+     * look like, so changing any of them misses entries computed under the old ones.
+     */
+    private String settingsKey;
+
+    private final LinkedHashMap<String, Long> entrySizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    @PostConstruct
+    void loadIndex() throws IOException {
+        settingsKey = "render.enabled=" + renderEnabled + ";render.dpi=" + dpi + ";render.max-page-bytes=" + maxPageBytes
+                + ";tiered=" + tiered + ";tiered.coarse-dpi=" + coarseDpi + ";tiered.tile-size=" + tileSize
+                + ";images.max-hash-distance=" + maxHashDistance + ";lines.max-edits-per-page=" + maxEditsPerPage
+                + ";report.max-rows-per-page=" + reportMaxRowsPerPage + ";report.max-rows=" + reportMaxRows
+                + ";report.max-images=" + reportMaxImages + ";report.image-width=" + reportImageWidth
+                + ";report.image-quality=" + reportImageQuality + ";annotate.format=" + annotateFormat
+                + ";annotate.jpeg-quality=" + annotateJpegQuality + ";annotate.max-width=" + annotateMaxWidth
+                + ";csv.gzip=" + csvGzip;
+        if (!enabled) return;
+        Path dir = Paths.get(cacheDir);
+        Files.createDirectories(dir);
+
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + ENTRY_SUFFIX)) {
+            stream.forEach(entries::add);
+        }
+        entries.sort(Comparator.comparing(ResultCache::lastModified));
+
+        synchronized (this) {
+            for (Path entry : entries) {
+                String key = entry.getFileName().toString().replace(ENTRY_SUFFIX, "");
+                long bytes = Long.parseLong(readEntry(entry).getProperty("bytes", "0"));
+                entrySizes.put(key, bytes);
+                totalBytes += bytes;
+            }
+            evictOverBudget();
+        }
+        log.info("Result cache loaded {} entries ({} bytes) from {}", entrySizes.size(), totalBytes, dir);
+    }
+
+    /**
+     * Builds the cache key from both upload hashes and everything else that changes the result:
+     * the exclusions and the comparison settings. {@code exclusionsKey} is the resolved
+     * exclusions' {@code key()}, so editing a named set does not serve results computed with its
+     * old contents; likewise a changed DPI, tiering, image tolerance, report limit, diff image
+     * format or CSV compression misses old entries, which then age out of the LRU.
+     */
+    public String key(String expectedSha256, String actualSha256, String exclusionsKey) {
+        MessageDigest digest = HashingSpooler.sha256();
+        digest.update(expectedSha256.getBytes(StandardCharsets.US_ASCII));
+        digest.update((byte) 0);
+        digest.update(actualSha256.getBytes(StandardCharsets.US_ASCII));
+        digest.update((byte) 0);
+        digest.update(exclusionsKey != null ? exclusionsKey.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+        digest.update((byte) 0);
+        digest.update(settingsKey.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /** Returns the stored outcome, or null on a miss or when its artifacts have been removed. */
+    public synchronized ComparisonOutcome get(String key) {
+        if (!enabled || !entrySizes.containsKey(key)) return null;
+        Path entry = entryPath(key);
+        try {
+            Properties props = readEntry(entry);
+            ComparisonOutcome outcome = new ComparisonOutcome();
+            outcome.passed = Boolean.parseBoolean(props.getProperty("passed"));
+            outcome.message = props.getProperty("message");
+            outcome.reportPath = props.getProperty("reportPath");
+            outcome.csvPath = props.getProperty("csvPath");
+            outcome.outputPath = props.getProperty("outputPath");
+            if (!Files.exists(Paths.get(outcome.reportPath)) || !Files.exists(Paths.get(outcome.csvPath))) {
+                remove(key);
+                return null;
+            }
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            entrySizes.get(key); // moves the entry to the most recently used end
+            return outcome;
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Dropping unreadable result cache entry {}", key, e);
+            remove(key);
+            return null;
+        }
+    }
+
+    public synchronized void put(String key, ComparisonOutcome outcome) {
+        if (!enabled) return;
+        long bytes = sizeOf(outcome.reportPath) + sizeOf(outcome.csvPath) + sizeOf(outcome.outputPath);
+
+        Properties props = new Properties();
+        props.setProperty("passed", String.valueOf(outcome.passed));
+        props.setProperty("message", outcome.message);
+        props.setProperty("reportPath", outcome.reportPath);
+        props.setProperty("csvPath", outcome.csvPath);
+        props.setProperty("outputPath", outcome.outputPath);
+        props.setProperty("bytes", String.valueOf(bytes));
+        try (OutputStream out = Files.newOutputStream(entryPath(key))) {
+            props.store(out, null);
+        } catch (IOException e) {
+            log.warn("Could not write result cache entry {}", key, e);
+            return;
+        }
+
+        Long previous = entrySizes.put(key, bytes);
+        totalBytes += bytes - (previous != null ? previous : 0);
+        evictOverBudget();
+    }
+
+    private void evictOverBudget() {
+        Iterator<Map.Entry<String, Long>> eldest = entrySizes.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> victim = eldest.next();
+            eldest.remove();
+            totalBytes -= victim.getValue();
+            deleteArtifacts(victim.getKey());
+        }
+    }
+
+    private void remove(String key) {
+        Long bytes = entrySizes.remove(key);
+        if (bytes != null) totalBytes -= bytes;
+        deleteArtifacts(key);
+    }
+
+    private void deleteArtifacts(String key) {
+        Path entry = entryPath(key);
+        try {
+            if (Files.exists(entry)) {
+                Properties props = readEntry(entry);
+                for (String name : new String[]{"reportPath", "csvPath", "outputPath"}) {
+                    String path = props.getProperty(name);
+                    if (path != null) deleteRecursively(Paths.get(path));
+                }
+            }
+            Files.deleteIfExists(entry);
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Could not fully evict result cache entry {}", key, e);
+        }
+    }
+
+    private Path entryPath(String key) {
+        return Paths.get(cacheDir, key + ENTRY_SUFFIX);
+    }
+
+    private static Properties readEntry(Path entry) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(entry)) {
+            props.load(in);
+        }
+        return props;
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static long sizeOf(String path) {
+        if (path == null) return 0;
+        Path root = Paths.get(path);
+        if (!Files.exists(root)) return 0;
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) return;
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.util.UniquePaths;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Gives every comparison its own directories, named by job id so concurrent jobs never share a
+ * path: an input directory for the spooled uploads under {@code pdfcompare.workspace.input-root},
+ * deleted when the job finishes, and an output directory for the report, CSV and diff images
+ * under {@code output-root}/jobs (batch summaries under {@code output-root}/batches).
+ * <p>
+ * A background sweep deletes output directories older than {@code retention-hours} and then
+ * the oldest ones while they exceed {@code max-bytes}, sparing those younger than the job
+ * retention so links of listed jobs keep working. Input directories left behind by a previous
+ * process are deleted at startup.
+ */
+@Service
+public class WorkspaceManager {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkspaceManager.class);
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+
+    @Value("${pdfcompare.workspace.input-root:${java.io.tmpdir}/pdf-comparator/inputs}")
+    private String inputRoot;
+
+    @Value("${pdfcompare.workspace.output-root:${user.home}/OneDrive - LTIMindtree/Desktop/TestResult}")
+    private String outputRoot;
+
+    @Value("${pdfcompare.workspace.retention-hours:168}")
+    private long retentionHours;
+
+    @Value("${pdfcompare.workspace.max-bytes:21474836480}")
+    private long maxBytes;
+
+    @Value("${pdfcompare.workspace.cleanup-interval-minutes:15}")
+    private long cleanupIntervalMinutes;
+
+    @Value("${pdfcompare.jobs.retention-minutes:60}")
+    private long jobRetentionMinutes;
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "workspace-retention");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    void start() throws IOException {
+        Path inputs = Files.createDirectories(Paths.get(inputRoot));
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(inputs)) {
+            for (Path leftover : leftovers) delete(leftover.toFile());
+        }
+        if (cleanupIntervalMinutes > 0) {
+            sweeper.scheduleWithFixedDelay(this::sweep, 1, cleanupIntervalMinutes * 60, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    /** Creates the directory the uploads of job {@code jobId} are spooled to. */
+    public File createInputDirectory(String jobId) throws IOException {
+        return Files.createDirectories(Paths.get(inputRoot, jobId)).toFile();
+    }
+
+    /** Creates the output directory of one comparison; {@code id} is its job id, or null for a fresh one. */
+    public File createOutputDirectory(String id) throws IOException {
+        return create("jobs", id);
+    }
+
+    /** Creates the directory a batch writes its summary to. */
+    public File createBatchDirectory(String batchId) throws IOException {
+        return create("batches", batchId);
+    }
+
+    private File create(String kind, String id) throws IOException {
+        String name = LocalDateTime.now().format(TIMESTAMP) + "-" + (id != null ? id : UUID.randomUUID().toString());
+        return new File(UniquePaths.createDirectory(Paths.get(outputRoot, kind, name).toString()));
+    }
+
+    /** Deletes a file or directory tree, logging what cannot be deleted. */
+    public void delete(File file) {
+        if (file == null || !file.exists()) return;
+        try (Stream<Path> paths = Files.walk(file.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                if (!path.toFile().delete()) log.debug("Could not delete {}", path);
+            });
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Could not delete {}", file, e);
+        }
+    }
+
+    /** Applies the age and size limits to the output directories. */
+    void sweep() {
+        try {
+            List<Path> directories = new ArrayList<>();
+            for (String kind : new String[]{"jobs", "batches"}) {
+                Path parent = Paths.get(outputRoot, kind);
+                if (!Files.isDirectory(parent)) continue;
+                try (DirectoryStream<Path> children = Files.newDirectoryStream(parent, Files::isDirectory)) {
+                    children.forEach(directories::add);
+                }
+            }
+            // names start with their creation time, so this is oldest first
+            directories.sort(Comparator.comparing(path -> path.getFileName().toString()));
+
+            long now = System.currentTimeMillis();
+            long expiredBefore = now - Duration.ofHours(retentionHours).toMillis();
+            long protectedAfter = now - Duration.ofMinutes(jobRetentionMinutes).toMillis();
+            List<Path> kept = new ArrayList<>();
+            long keptBytes = 0;
+            int deleted = 0;
+            for (Path directory : directories) {
+                long modified = Files.getLastModifiedTime(directory).toMillis();
+                if (modified < expiredBefore) {
+                    delete(directory.toFile());
+                    deleted++;
+                } else {
+                    kept.add(directory);
+                    keptBytes += sizeOf(directory);
+                }
+            }
+            for (Path directory : kept) {
+                if (keptBytes <= maxBytes) break;
+                if (Files.getLastModifiedTime(directory).toMillis() >= protectedAfter) continue;
+                long bytes = sizeOf(directory);
+                delete(directory.toFile());
+                keptBytes -= bytes;
+                deleted++;
+            }
+            if (deleted > 0) {
+                log.info("Workspace retention deleted {} output directories; {} MB remain", deleted, keptBytes >> 20);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Workspace retention sweep failed", e);
+        }
+    }
+
+    private static long sizeOf(Path root) {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        } catch (IOException | UncheckedIOException e) {
+            return 0;
+        }
+    }
+}
@@ -1,83 +1,171 @@
 package com.example.pdfcomparator.util;
 
-import com.example.pdfcomparator.service.PdfService.LineComparisonResult;
+import com.example.pdfcomparator.service.BatchJob;
+import com.example.pdfcomparator.service.LineDifferences;
 
-import java.io.FileWriter;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 public class CsvReportExporter {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String HEADER =
+            "Page Number,Change Type,Expected Result,Actual Result,Text Compare,Image Compare,Expected Image,Actual Image," +
+            "Font Compare,Expected Font Style,Actual Font Style,Font Size Compare,Expected Font Size,Actual Font Size," +
+            "Line Compare,All Compare / Pixel Compare,Pass/Fail,Report Link,Mismatch Details\n";
+
+    private static final String BATCH_HEADER =
+            "Name,Expected File,Actual File,Pass/Fail,Line Differences,Duration (ms),Report Link,CSV Report,Error\n";
+
     /**
-     * Export LineComparisonResult list to CSV with a clickable PDF report link for Excel.
-     * Only failed entries (passFail = "FAIL") are exported.
+     * Export line differences to CSV with a clickable PDF report link for Excel.
+     * Every row of {@link LineDifferences} has at least one failed check.
      *
-     * @param lineComparisonResults List of comparison results.
-     * @param pdfReportPath Absolute path to the generated PDF report (for link).
+     * @param differences Rows of the line comparison.
+     * @param pdfReportPath Absolute path to the generated PDF report (for link); the CSV is written next to it.
      * @return Full CSV file path.
      * @throws IOException on file write failure.
      */
-    public static String exportLineDifferencesToCsv(List<LineComparisonResult> lineComparisonResults, String pdfReportPath) throws IOException {
-        String reportDir = System.getProperty("user.home") + "/OneDrive - LTIMindtree/Desktop/TestResult/CSVReports";
-        java.io.File folder = new java.io.File(reportDir);
-        if (!folder.exists() && !folder.mkdirs()) {
-            throw new IOException("Failed to create CSV report directory: " + reportDir);
+    public static String exportLineDifferencesToCsv(LineDifferences differences, String pdfReportPath) throws IOException {
+        return exportLineDifferencesToCsv(differences, pdfReportPath, false);
+    }
+
+    /**
+     * Same as {@link #exportLineDifferencesToCsv(LineDifferences, String)}, optionally
+     * gzip-compressed ({@code .csv.gz}) for runs with very many differences.
+     */
+    public static String exportLineDifferencesToCsv(LineDifferences differences, String pdfReportPath,
+                                                    boolean gzip) throws IOException {
+        String reportDir = Paths.get(pdfReportPath).toAbsolutePath().getParent().toString();
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+        String csvPath = UniquePaths.createFile(reportDir + "/line-differences-" + timestamp, gzip ? ".csv.gz" : ".csv");
+
+        OutputStream file = new FileOutputStream(csvPath);
+        try (Writer writer = openWriter(gzip ? new GZIPOutputStream(file, BUFFER_SIZE) : file)) {
+            writeLineDifferences(differences, pdfReportPath, writer);
         }
+        return csvPath;
+    }
 
+    /**
+     * Writes the summary of a finished batch: one row per pair with its verdict, the number of
+     * differing lines, the duration and links to the pair's PDF report and CSV, then the totals.
+     *
+     * @param reportDir Directory to write the summary to.
+     * @return Full CSV file path.
+     */
+    public static String exportBatchSummaryToCsv(BatchJob batch, String reportDir) throws IOException {
+        Files.createDirectories(Paths.get(reportDir));
         String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-        String csvPath = reportDir + "/line-differences-" + timestamp + ".csv";
+        String csvPath = UniquePaths.createFile(reportDir + "/batch-summary-" + timestamp, ".csv");
 
-        // Sanitize PDF report path for hyperlink formula
-        String sanitizedReportPath = pdfReportPath.replace("\\", "/");
-
-        try (FileWriter writer = new FileWriter(csvPath)) {
-            // Write header line
-            writer.append("Page Number,Expected Result,Actual Result,Text Compare,Image Compare,Expected Image,Actual Image,")
-                  .append("Font Compare,Expected Font Style,Actual Font Style,Font Size Compare,Expected Font Size,Actual Font Size,")
-                  .append("Line Compare,All Compare / Pixel Compare,Pass/Fail,Report Link,Mismatch Details\n");
-
-            for (LineComparisonResult r : lineComparisonResults) {
-                if (!"FAIL".equalsIgnoreCase(r.passFail)) continue;
-
-                writer.append(safeQuote(String.valueOf(r.pageNumber))).append(",");
-                writer.append(safeQuote(r.expectedText)).append(",");
-                writer.append(safeQuote(r.actualText)).append(",");
-                writer.append(safeQuote(r.textCompare)).append(",");
-                writer.append(safeQuote(r.imageCompare)).append(",");
-                writer.append(safeQuote(r.expectedImage)).append(",");
-                writer.append(safeQuote(r.actualImage)).append(",");
-                writer.append(safeQuote(r.fontCompare)).append(",");
-                writer.append(safeQuote(r.expectedFontStyle)).append(",");
-                writer.append(safeQuote(r.actualFontStyle)).append(",");
-                writer.append(safeQuote(r.fontSizeCompare)).append(",");
-                writer.append(safeQuote(r.expectedFontSize)).append(",");
-                writer.append(safeQuote(r.actualFontSize)).append(",");
-                writer.append(safeQuote(r.lineCompare)).append(",");
-                writer.append(safeQuote(r.allCompare)).append(",");
-                writer.append(safeQuote(r.passFail)).append(",");
-
-                // Add Excel clickable hyperlink formula using full file path
-                String hyperlinkFormula = String.format("=HYPERLINK(\"file:///%s\",\"View Report\")", sanitizedReportPath);
-                writer.append("\"").append(hyperlinkFormula).append("\",");
-
-                writer.append(safeQuote(r.mismatchDetails)).append("\n");
+        try (Writer writer = openWriter(new FileOutputStream(csvPath))) {
+            writer.write(BATCH_HEADER);
+            for (BatchJob.Pair pair : batch.getPairs()) {
+                Boolean passed = pair.getPassed();
+                writeCell(writer, pair.getName());
+                writeCell(writer, pair.getExpected());
+                writeCell(writer, pair.getActual());
+                writeCell(writer, passed == null ? "NOT COMPARED" : passed ? "PASS" : "FAIL");
+                writeCell(writer, pair.getDifferences() >= 0 ? Integer.toString(pair.getDifferences()) : "");
+                writeCell(writer, Long.toString(pair.getMillis()));
+                writeCell(writer, pair.getReportPath() != null
+                        ? String.format("=HYPERLINK(\"file:///%s\",\"View Report\")", pair.getReportPath().replace("\\", "/")) : "");
+                writeCell(writer, pair.getCsvPath());
+                writeQuoted(writer, pair.getError());
+                writer.write('\n');
             }
+            writer.write("\n\"Pairs\",\"" + batch.getPairsTotal() + "\"\n\"Passed\",\"" + batch.getPassed()
+                    + "\"\n\"Failed\",\"" + batch.getFailed() + "\"\n\"Not compared\",\"" + batch.getErrors() + "\"\n");
+        }
+        return csvPath;
+    }
+
+    /** Buffered UTF-8 writer over {@code out}, e.g. an HTTP response body; closing it closes {@code out}. */
+    public static Writer openWriter(OutputStream out) {
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * Streams the rows of {@code differences} as CSV to {@code writer}. Cells are escaped
+     * straight into the writer from the line store, so no per-cell strings are built, and the
+     * report link formula is formatted once per export.
+     */
+    public static void writeLineDifferences(LineDifferences differences, String pdfReportPath,
+                                            Writer writer) throws IOException {
+        // Sanitize PDF report path for hyperlink formula
+        String hyperlinkFormula = String.format("=HYPERLINK(\"file:///%s\",\"View Report\")", pdfReportPath.replace("\\", "/"));
+        String hyperlinkCell = "\"" + hyperlinkFormula + "\",";
+
+        writer.write(HEADER);
+        for (int row = 0; row < differences.size(); row++) {
+            writer.write('"');
+            writer.write(Integer.toString(differences.page(row)));
+            writer.write("\",");
+            writeCell(writer, differences.changeType(row));
+            writeCell(writer, differences.expectedText(row));
+            writeCell(writer, differences.actualText(row));
+            writeCell(writer, differences.verdict(row, LineDifferences.TEXT));
+            writeCell(writer, differences.verdict(row, LineDifferences.IMAGES));
+            writeCell(writer, differences.expectedImage(row));
+            writeCell(writer, differences.actualImage(row));
+            writeCell(writer, differences.verdict(row, LineDifferences.FONT));
+            writeCell(writer, differences.expectedFontStyle(row));
+            writeCell(writer, differences.actualFontStyle(row));
+            writeCell(writer, differences.verdict(row, LineDifferences.FONT_SIZE));
+            writeCell(writer, differences.expectedFontSize(row));
+            writeCell(writer, differences.actualFontSize(row));
+            writeCell(writer, differences.verdict(row, LineDifferences.LINE));
+            writeCell(writer, differences.verdict(row, LineDifferences.ALL));
+            writeCell(writer, differences.verdict(row, LineDifferences.ALL));
 
-            // Optional summary row with clickable PDF report link
-            writer.append("\n\"Summary/Mismatches Shown In PDF Report:\",\"")
-                  .append(String.format("=HYPERLINK(\"file:///%s\",\"View Report\")", sanitizedReportPath))
-                  .append("\"\n");
+            // Excel clickable hyperlink formula using full file path
+            writer.write(hyperlinkCell);
+
+            writeQuoted(writer, differences.mismatchDetails(row));
+            writer.write('\n');
         }
 
-        return csvPath;
+        // Optional summary row with clickable PDF report link
+        writer.write("\n\"Summary/Mismatches Shown In PDF Report:\",\"");
+        writer.write(hyperlinkFormula);
+        writer.write("\"\n");
+        writer.flush();
     }
 
-    private static String safeQuote(String s) {
-        if (s == null) return "\"\"";
-        String trimmed = s.trim();
-        String escaped = trimmed.replace("\"", "\"\"");
-        return "\"" + escaped + "\"";
+    private static void writeCell(Writer writer, CharSequence s) throws IOException {
+        writeQuoted(writer, s);
+        writer.write(',');
+    }
+
+    /** Writes {@code s} trimmed, quoted and with embedded quotes doubled. */
+    private static void writeQuoted(Writer writer, CharSequence s) throws IOException {
+        writer.write('"');
+        if (s != null) {
+            int start = 0, end = s.length();
+            while (start < end && s.charAt(start) <= ' ') start++;
+            while (end > start && s.charAt(end - 1) <= ' ') end--;
+            int from = start;
+            for (int i = start; i < end; i++) {
+                if (s.charAt(i) == '"') {
+                    writer.append(s, from, i + 1);
+                    writer.write('"');
+                    from = i + 1;
+                }
+            }
+            writer.append(s, from, end);
+        }
+        writer.write('"');
     }
 }
@@ -0,0 +1,172 @@
+package com.example.pdfcomparator.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Parses the exclusions sent with a comparison:
+ * <pre>
+ * {"exclusions": [{"page": 3},
+ *                 {"page": 1, "x": 36, "y": 20, "width": 200, "height": 40},
+ *                 {"x": 0, "y": 800, "width": 595, "height": 42}],
+ *  "sets": ["letterhead"]}
+ * </pre>
+ * An entry with only a page excludes the whole page. An entry with a rectangle excludes that
+ * region of the given page, or of every page when the page is omitted. Regions are in PDF points
+ * measured from the top-left corner of the page as displayed. {@code sets} names exclusion sets
+ * registered earlier; they are resolved by the caller.
+ */
+public class ExclusionHelper {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    /** Region key for rectangles that apply to every page. */
+    private static final int ALL_PAGES = 0;
+
+    public static class Exclusions {
+        public static final Exclusions NONE = new Exclusions(Collections.emptySet(), Collections.emptyMap(), Collections.emptySet());
+
+        private final Set<Integer> pages;
+        private final Map<Integer, List<Rectangle2D.Float>> regions;
+        private final Map<Integer, RegionTree> trees = new HashMap<>();
+        private final Set<String> setNames;
+
+        private Exclusions(Set<Integer> pages, Map<Integer, List<Rectangle2D.Float>> regions, Set<String> setNames) {
+            this.pages = Collections.unmodifiableSet(pages);
+            this.regions = regions;
+            this.setNames = Collections.unmodifiableSet(setNames);
+            for (Map.Entry<Integer, List<Rectangle2D.Float>> entry : regions.entrySet()) {
+                trees.put(entry.getKey(), RegionTree.build(entry.getValue()));
+            }
+        }
+
+        /** Whole pages to leave out (1-based). */
+        public Set<Integer> getPages() {
+            return pages;
+        }
+
+        /** Named exclusion sets this request refers to. */
+        public Set<String> getSetNames() {
+            return setNames;
+        }
+
+        public boolean isEmpty() {
+            return pages.isEmpty() && regions.isEmpty();
+        }
+
+        public boolean hasRegions() {
+            return !regions.isEmpty();
+        }
+
+        public int regionCount() {
+            int count = 0;
+            for (List<Rectangle2D.Float> rects : regions.values()) count += rects.size();
+            return count;
+        }
+
+        /** Rectangles excluded on {@code page}, including those that apply to every page. */
+        public List<Rectangle2D.Float> regions(int page) {
+            List<Rectangle2D.Float> onPage = regions.getOrDefault(page, Collections.emptyList());
+            List<Rectangle2D.Float> everyPage = regions.getOrDefault(ALL_PAGES, Collections.emptyList());
+            if (everyPage.isEmpty()) return onPage;
+            if (onPage.isEmpty()) return everyPage;
+            List<Rectangle2D.Float> all = new ArrayList<>(onPage);
+            all.addAll(everyPage);
+            return all;
+        }
+
+        /** Whether the box (points, top-left origin) lies entirely inside an excluded region of {@code page}. */
+        public boolean excludes(int page, float minX, float minY, float maxX, float maxY) {
+            if (regions.isEmpty()) return false;
+            RegionTree onPage = trees.get(page);
+            if (onPage != null && onPage.contains(minX, minY, maxX, maxY)) return true;
+            RegionTree everyPage = trees.get(ALL_PAGES);
+            return everyPage != null && everyPage.contains(minX, minY, maxX, maxY);
+        }
+
+        /** The union of both, with the set names of this one. */
+        public Exclusions merge(Exclusions other) {
+            Set<Integer> mergedPages = new TreeSet<>(pages);
+            mergedPages.addAll(other.pages);
+            Map<Integer, List<Rectangle2D.Float>> mergedRegions = new TreeMap<>();
+            for (Map<Integer, List<Rectangle2D.Float>> source : List.of(regions, other.regions)) {
+                source.forEach((page, rects) -> mergedRegions.computeIfAbsent(page, p -> new ArrayList<>()).addAll(rects));
+            }
+            return new Exclusions(mergedPages, mergedRegions, setNames);
+        }
+
+        /** Canonical description of what is excluded, for cache keys; independent of entry order. */
+        public String key() {
+            StringBuilder key = new StringBuilder("pages=").append(new TreeSet<>(pages));
+            for (Map.Entry<Integer, List<Rectangle2D.Float>> entry : new TreeMap<>(regions).entrySet()) {
+                List<Rectangle2D.Float> rects = new ArrayList<>(entry.getValue());
+                rects.sort(Comparator.<Rectangle2D.Float>comparingDouble(r -> r.x).thenComparingDouble(r -> r.y)
+                        .thenComparingDouble(r -> r.width).thenComparingDouble(r -> r.height));
+                key.append(";page").append(entry.getKey()).append('=');
+                for (Rectangle2D.Float r : rects) {
+                    key.append('[').append(r.x).append(',').append(r.y).append(',').append(r.width).append(',').append(r.height).append(']');
+                }
+            }
+            return key.toString();
+        }
+    }
+
+    /**
+     * Parses an exclusions document; null or blank means no exclusions.
+     *
+     * @throws IllegalArgumentException if the JSON is malformed or an entry is invalid.
+     */
+    public static Exclusions parse(String json) {
+        if (json == null || json.isBlank()) return Exclusions.NONE;
+        JsonNode root;
+        try {
+            root = MAPPER.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Malformed exclusions JSON: " + e.getOriginalMessage());
+        }
+
+        JsonNode entries = root.isArray() ? root : root.path("exclusions");
+        Set<Integer> pages = new TreeSet<>();
+        Map<Integer, List<Rectangle2D.Float>> regions = new TreeMap<>();
+        for (JsonNode entry : entries) {
+            Integer page = null;
+            if (entry.hasNonNull("page")) {
+                page = entry.get("page").asInt();
+                if (page < 1) throw new IllegalArgumentException("Excluded page must be 1 or greater: " + entry);
+            }
+            boolean region = entry.has("x") || entry.has("y") || entry.has("width") || entry.has("height");
+            if (!region) {
+                if (page == null) throw new IllegalArgumentException("Exclusion needs a page or a region: " + entry);
+                pages.add(page);
+                continue;
+            }
+            if (!entry.path("x").isNumber() || !entry.path("y").isNumber()
+                    || !entry.path("width").isNumber() || !entry.path("height").isNumber()) {
+                throw new IllegalArgumentException("Region exclusion needs numeric x, y, width and height: " + entry);
+            }
+            float width = (float) entry.get("width").asDouble(), height = (float) entry.get("height").asDouble();
+            if (width <= 0 || height <= 0) throw new IllegalArgumentException("Region exclusion must have a positive size: " + entry);
+            regions.computeIfAbsent(page != null ? page : ALL_PAGES, p -> new ArrayList<>())
+                    .add(new Rectangle2D.Float((float) entry.get("x").asDouble(), (float) entry.get("y").asDouble(), width, height));
+        }
+
+        Set<String> setNames = new LinkedHashSet<>();
+        for (JsonNode set : root.path("sets")) {
+            if (!set.isTextual() || set.asText().isBlank()) throw new IllegalArgumentException("Exclusion set names must be strings: " + set);
+            setNames.add(set.asText());
+        }
+        return new Exclusions(pages, regions, setNames);
+    }
+}
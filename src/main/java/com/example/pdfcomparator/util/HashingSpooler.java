@@ -0,0 +1,47 @@
+package com.example.pdfcomparator.util;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+public class HashingSpooler {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Moves an upload to {@code target} and returns the SHA-256 of its bytes. The servlet
+     * container has already spooled the multipart to a temp file, which is renamed into place
+     * when it lies on the same file system, so the upload is read once more for the hash but
+     * not written again.
+     *
+     * @param upload Multipart upload to spool.
+     * @param target File to write; replaced if it exists.
+     * @return Lower-case hex SHA-256 of the upload.
+     * @throws IOException on read or write failure.
+     */
+    public static String spool(MultipartFile upload, Path target) throws IOException {
+        upload.transferTo(target.toAbsolutePath().toFile());
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(target)) {
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.pdfcomparator.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LineAligner {
+
+    public static final byte EQUAL = 0;
+    public static final byte DELETE = 1;
+    public static final byte INSERT = 2;
+
+    /**
+     * Aligns two key sequences with Myers' O((N+M)D) diff after stripping the common prefix and
+     * suffix. Keys are ids of whatever identifies a line, so comparisons are int compares.
+     *
+     * @param expected Keys of the expected lines.
+     * @param actual Keys of the actual lines.
+     * @param maxEdits Edit distance after which the differing middle is reported as a block
+     *                 replacement instead of being aligned, bounding time and memory.
+     * @return Edit script: one op per step, consuming an expected key (DELETE), an actual key
+     *         (INSERT) or one of each (EQUAL).
+     */
+    public static byte[] align(int[] expected, int[] actual, int maxEdits) {
+        int n = expected.length, m = actual.length;
+        int prefix = 0;
+        while (prefix < n && prefix < m && expected[prefix] == actual[prefix]) prefix++;
+        int suffix = 0;
+        while (suffix < n - prefix && suffix < m - prefix && expected[n - 1 - suffix] == actual[m - 1 - suffix]) suffix++;
+
+        byte[] middle = myers(expected, prefix, n - suffix, actual, prefix, m - suffix, maxEdits);
+        byte[] script = new byte[prefix + middle.length + suffix];
+        System.arraycopy(middle, 0, script, prefix, middle.length);
+        return script;
+    }
+
+    private static byte[] myers(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo, int maxEdits) {
+        int n = aTo - aFrom, m = bTo - bFrom;
+        int max = n + m;
+        if (max == 0) return new byte[0];
+        if (n == 0 || m == 0) return replacement(n, m);
+
+        int offset = max;
+        int[] v = new int[2 * max + 2];
+        // round d only reads diagonals -d..d of the previous one, so that slice is all backtracking
+        // needs: O(D^2) memory instead of O(D * (N + M))
+        List<int[]> trace = new ArrayList<>();
+
+        for (int d = 0; d <= max; d++) {
+            if (d > maxEdits) return replacement(n, m);
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]))
+                        ? v[offset + k + 1]
+                        : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aFrom + x] == b[bFrom + y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    return backtrack(trace, n, m, d);
+                }
+            }
+        }
+        throw new IllegalStateException("Myers diff did not terminate");
+    }
+
+    /** Walks the rounds back from (n, m); {@code trace.get(d)[d + k]} is diagonal k before round d. */
+    private static byte[] backtrack(List<int[]> trace, int n, int m, int edits) {
+        byte[] reversed = new byte[n + m];
+        int length = 0;
+        int x = n, y = m;
+
+        for (int d = edits; d > 0; d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            int prevK = (k == -d || (k != d && v[d + k - 1] < v[d + k + 1])) ? k + 1 : k - 1;
+            int prevX = v[d + prevK];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                reversed[length++] = EQUAL;
+                x--;
+                y--;
+            }
+            reversed[length++] = prevK == k + 1 ? INSERT : DELETE;
+            x = prevX;
+            y = prevY;
+        }
+        while (x > 0 && y > 0) {
+            reversed[length++] = EQUAL;
+            x--;
+            y--;
+        }
+
+        byte[] script = new byte[length];
+        for (int i = 0; i < length; i++) script[i] = reversed[length - 1 - i];
+        return script;
+    }
+
+    private static byte[] replacement(int deletes, int inserts) {
+        byte[] script = new byte[deletes + inserts];
+        for (int i = 0; i < deletes; i++) script[i] = DELETE;
+        for (int i = deletes; i < script.length; i++) script[i] = INSERT;
+        return script;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.pdfcomparator.util;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Static R-tree over rectangles, bulk-loaded with Sort-Tile-Recursive packing. Each level is a
+ * flat array of boxes; the children of node {@code i} are entries {@code i*8 .. i*8+7} of the
+ * level below, so the tree needs no node objects.
+ */
+public class RegionTree {
+
+    private static final int NODE_CAPACITY = 8;
+
+    /** levels[0] holds the rectangles, levels[k] the bounding boxes of groups of level k-1; 4 floats per box. */
+    private final float[][] levels;
+    private final int[] counts;
+
+    private RegionTree(float[][] levels, int[] counts) {
+        this.levels = levels;
+        this.counts = counts;
+    }
+
+    public static RegionTree build(List<? extends Rectangle2D> rectangles) {
+        Rectangle2D[] sorted = rectangles.toArray(new Rectangle2D[0]);
+        int n = sorted.length;
+        // STR: sort by x into vertical slices of about sqrt(n/M) nodes each, then by y within a slice
+        int leafNodes = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceSize = (int) Math.ceil(Math.sqrt(leafNodes)) * NODE_CAPACITY;
+        Arrays.sort(sorted, Comparator.comparingDouble(Rectangle2D::getCenterX));
+        for (int from = 0; from < n; from += Math.max(1, sliceSize)) {
+            Arrays.sort(sorted, from, Math.min(n, from + Math.max(1, sliceSize)), Comparator.comparingDouble(Rectangle2D::getCenterY));
+        }
+
+        float[] leaves = new float[n * 4];
+        for (int i = 0; i < n; i++) {
+            leaves[i * 4] = (float) sorted[i].getMinX();
+            leaves[i * 4 + 1] = (float) sorted[i].getMinY();
+            leaves[i * 4 + 2] = (float) sorted[i].getMaxX();
+            leaves[i * 4 + 3] = (float) sorted[i].getMaxY();
+        }
+
+        int height = 1;
+        for (int count = n; count > 1; count = (count + NODE_CAPACITY - 1) / NODE_CAPACITY) height++;
+        float[][] levels = new float[height][];
+        int[] counts = new int[height];
+        levels[0] = leaves;
+        counts[0] = n;
+        for (int level = 1; level < height; level++) {
+            int children = counts[level - 1];
+            int nodes = (children + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            float[] below = levels[level - 1];
+            float[] boxes = new float[nodes * 4];
+            for (int node = 0; node < nodes; node++) {
+                float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+                float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+                for (int c = node * NODE_CAPACITY; c < Math.min(children, (node + 1) * NODE_CAPACITY); c++) {
+                    minX = Math.min(minX, below[c * 4]);
+                    minY = Math.min(minY, below[c * 4 + 1]);
+                    maxX = Math.max(maxX, below[c * 4 + 2]);
+                    maxY = Math.max(maxY, below[c * 4 + 3]);
+                }
+                boxes[node * 4] = minX;
+                boxes[node * 4 + 1] = minY;
+                boxes[node * 4 + 2] = maxX;
+                boxes[node * 4 + 3] = maxY;
+            }
+            levels[level] = boxes;
+            counts[level] = nodes;
+        }
+        return new RegionTree(levels, counts);
+    }
+
+    public int size() {
+        return counts[0];
+    }
+
+    /**
+     * Whether one of the rectangles fully contains the given box. Only subtrees whose bounding
+     * box contains the query are visited, so a lookup touches O(log n) nodes unless rectangles
+     * overlap heavily.
+     */
+    public boolean contains(float minX, float minY, float maxX, float maxY) {
+        int top = levels.length - 1;
+        for (int node = 0; node < counts[top]; node++) {
+            if (contains(top, node, minX, minY, maxX, maxY)) return true;
+        }
+        return false;
+    }
+
+    private boolean contains(int level, int index, float minX, float minY, float maxX, float maxY) {
+        float[] boxes = levels[level];
+        int b = index * 4;
+        if (boxes[b] > minX || boxes[b + 1] > minY || boxes[b + 2] < maxX || boxes[b + 3] < maxY) return false;
+        if (level == 0) return true;
+        int end = Math.min(counts[level - 1], (index + 1) * NODE_CAPACITY);
+        for (int child = index * NODE_CAPACITY; child < end; child++) {
+            if (contains(level - 1, child, minX, minY, maxX, maxY)) return true;
+        }
+        return false;
+    }
+}
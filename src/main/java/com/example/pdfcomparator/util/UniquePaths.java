@@ -0,0 +1,43 @@
+package com.example.pdfcomparator.util;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Claims output names atomically. Reports are named by a timestamp in seconds, so comparisons
+ * finishing in the same second, as in a batch, would otherwise overwrite each other's output;
+ * the second one gets {@code -2}, the third {@code -3}, and so on.
+ */
+public class UniquePaths {
+
+    /** Creates directory {@code base} (and its parents), or the first free numbered variant, and returns its path. */
+    public static String createDirectory(String base) throws IOException {
+        Path parent = Paths.get(base).toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        for (int n = 1; ; n++) {
+            String candidate = n == 1 ? base : base + "-" + n;
+            try {
+                Files.createDirectory(Paths.get(candidate));
+                return candidate;
+            } catch (FileAlreadyExistsException e) {
+                // taken by a concurrent comparison, try the next number
+            }
+        }
+    }
+
+    /** Creates the empty file {@code base + extension}, or the first free numbered variant, and returns its path. */
+    public static String createFile(String base, String extension) throws IOException {
+        for (int n = 1; ; n++) {
+            String candidate = (n == 1 ? base : base + "-" + n) + extension;
+            try {
+                Files.createFile(Paths.get(candidate));
+                return candidate;
+            } catch (FileAlreadyExistsException e) {
+                // taken by a concurrent comparison, try the next number
+            }
+        }
+    }
+}
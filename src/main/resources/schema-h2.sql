@@ -0,0 +1,45 @@
+-- Comparison history, see HistoryStore. Applied at startup by spring.sql.init.
+CREATE TABLE IF NOT EXISTS comparison_run (
+    id                BIGINT AUTO_INCREMENT PRIMARY KEY,
+    job_id            VARCHAR(36)    NOT NULL,
+    source            VARCHAR(16)    NOT NULL,
+    expected_document VARCHAR(450),
+    actual_document   VARCHAR(450),
+    expected_sha256   CHAR(64),
+    actual_sha256     CHAR(64),
+    status            VARCHAR(16)    NOT NULL,
+    passed            BOOLEAN,
+    cached            BOOLEAN        NOT NULL,
+    identical_pages   INT,
+    difference_count  INT,
+    rows_recorded     INT,
+    stopped_at_page   INT,
+    duration_ms       BIGINT         NOT NULL,
+    started_at        TIMESTAMP      NOT NULL,
+    finished_at       TIMESTAMP      NOT NULL,
+    report_path       VARCHAR(1000),
+    csv_path          VARCHAR(1000),
+    error             VARCHAR(1000)
+);
+-- added after the first release of the table; runs recorded before it are left out of flaky-line counts
+ALTER TABLE comparison_run ADD COLUMN IF NOT EXISTS rows_recorded INT;
+CREATE UNIQUE INDEX IF NOT EXISTS ux_comparison_run_job ON comparison_run (job_id);
+CREATE INDEX IF NOT EXISTS ix_comparison_run_document ON comparison_run (expected_document, finished_at);
+CREATE INDEX IF NOT EXISTS ix_comparison_run_finished ON comparison_run (finished_at);
+
+CREATE TABLE IF NOT EXISTS line_difference (
+    id            BIGINT AUTO_INCREMENT PRIMARY KEY,
+    job_id        VARCHAR(36)   NOT NULL,
+    document      VARCHAR(450),
+    page          INT           NOT NULL,
+    row_no        INT           NOT NULL,
+    change_type   VARCHAR(16)   NOT NULL,
+    expected_line INT,
+    actual_line   INT,
+    expected_text VARCHAR(1000),
+    actual_text   VARCHAR(1000),
+    failed_checks VARCHAR(1000),
+    finished_at   TIMESTAMP     NOT NULL
+);
+CREATE INDEX IF NOT EXISTS ix_line_difference_document ON line_difference (document, page, finished_at);
+CREATE INDEX IF NOT EXISTS ix_line_difference_job ON line_difference (job_id);
@@ -0,0 +1,53 @@
+-- Comparison history, see HistoryStore. Applied at startup by spring.sql.init; every statement is idempotent.
+-- Rows are clustered by their identity, so batched inserts append; lookups go through the nonclustered indexes.
+-- Document names are at most 450 characters, the longest NVARCHAR an index key can hold.
+IF OBJECT_ID('comparison_run') IS NULL CREATE TABLE comparison_run (
+    id                BIGINT IDENTITY PRIMARY KEY,
+    job_id            VARCHAR(36)    NOT NULL,
+    source            VARCHAR(16)    NOT NULL,
+    expected_document NVARCHAR(450),
+    actual_document   NVARCHAR(450),
+    expected_sha256   CHAR(64),
+    actual_sha256     CHAR(64),
+    status            VARCHAR(16)    NOT NULL,
+    passed            BIT,
+    cached            BIT            NOT NULL,
+    identical_pages   INT,
+    difference_count  INT,
+    rows_recorded     INT,
+    stopped_at_page   INT,
+    duration_ms       BIGINT         NOT NULL,
+    started_at        DATETIME2      NOT NULL,
+    finished_at       DATETIME2      NOT NULL,
+    report_path       NVARCHAR(1000),
+    csv_path          NVARCHAR(1000),
+    error             NVARCHAR(1000)
+);
+-- added after the first release of the table; runs recorded before it are left out of flaky-line counts
+IF COL_LENGTH('comparison_run', 'rows_recorded') IS NULL ALTER TABLE comparison_run ADD rows_recorded INT;
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'ux_comparison_run_job')
+    CREATE UNIQUE INDEX ux_comparison_run_job ON comparison_run (job_id);
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'ix_comparison_run_document')
+    CREATE INDEX ix_comparison_run_document ON comparison_run (expected_document, finished_at);
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'ix_comparison_run_finished')
+    CREATE INDEX ix_comparison_run_finished ON comparison_run (finished_at);
+
+IF OBJECT_ID('line_difference') IS NULL CREATE TABLE line_difference (
+    id            BIGINT IDENTITY PRIMARY KEY,
+    job_id        VARCHAR(36)    NOT NULL,
+    document      NVARCHAR(450),
+    page          INT            NOT NULL,
+    row_no        INT            NOT NULL,
+    change_type   VARCHAR(16)    NOT NULL,
+    expected_line INT,
+    actual_line   INT,
+    expected_text NVARCHAR(1000),
+    actual_text   NVARCHAR(1000),
+    failed_checks NVARCHAR(1000),
+    finished_at   DATETIME2      NOT NULL
+);
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'ix_line_difference_document')
+    CREATE INDEX ix_line_difference_document ON line_difference (document, page, finished_at)
+        INCLUDE (job_id, expected_line, change_type);
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'ix_line_difference_job')
+    CREATE INDEX ix_line_difference_job ON line_difference (job_id);
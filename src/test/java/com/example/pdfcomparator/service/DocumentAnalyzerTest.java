@@ -0,0 +1,91 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.util.ExclusionHelper.Exclusions;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Page-range extraction of large documents holds the images of one chunk at a time. */
+class DocumentAnalyzerTest {
+
+    private static final int PAGES = 10;
+    private static final int CHUNK_PAGES = 3;
+
+    @TempDir
+    Path workDir;
+
+    private AnnotationConfigApplicationContext context;
+    private DocumentAnalyzer analyzer;
+
+    @BeforeEach
+    void start() {
+        context = new AnnotationConfigApplicationContext(PageFingerprinter.class, DocumentAnalyzer.class);
+        analyzer = context.getBean(DocumentAnalyzer.class);
+    }
+
+    @AfterEach
+    void stop() {
+        context.close();
+    }
+
+    @Test
+    void extractRangeCollectsImagesOfItsChunkOnly() throws IOException {
+        File pdf = writeDocument(workDir.resolve("images.pdf").toFile());
+        try (DocumentAnalysis analysis = analyzer.load(pdf)) {
+            for (int from = 1; from <= PAGES; from += CHUNK_PAGES) {
+                int to = Math.min(PAGES, from + CHUNK_PAGES - 1);
+                LineStore lines = analyzer.extractRange(analysis, Set.of(), Exclusions.NONE, from, to);
+
+                assertEquals(to - from + 1, lines.size());
+                assertEquals(to - from + 1, analysis.getImages().size());
+                for (int page : analysis.getImages().keySet()) {
+                    assertTrue(page >= from && page <= to, "page " + page + " outside chunk " + from + "-" + to);
+                    assertEquals(1, analysis.getImages().get(page).size());
+                }
+                analysis.releaseImages(from, to);
+                assertTrue(analysis.getImages().isEmpty());
+            }
+            assertEquals(PAGES, analysis.getImageResolutions().size());
+        }
+    }
+
+    /** One line of text and one image per page. */
+    private static File writeDocument(File file) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            BufferedImage pixels = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+            for (int page = 1; page <= PAGES; page++) {
+                PDPage pdPage = new PDPage();
+                document.addPage(pdPage);
+                pixels.setRGB(0, 0, page);
+                PDImageXObject image = LosslessFactory.createFromImage(document, pixels);
+                try (PDPageContentStream content = new PDPageContentStream(document, pdPage)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(72, 720);
+                    content.showText("Page " + page);
+                    content.endText();
+                    content.drawImage(image, 72, 600, 32, 32);
+                }
+            }
+            document.save(file);
+        }
+        return file;
+    }
+}
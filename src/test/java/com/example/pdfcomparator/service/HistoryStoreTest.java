@@ -0,0 +1,151 @@
+package com.example.pdfcomparator.service;
+
+import com.example.pdfcomparator.service.HistoryStore.FlakyLine;
+import com.example.pdfcomparator.service.HistoryStore.RunSummary;
+import com.example.pdfcomparator.service.PdfService.ComparisonOutcome;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Records runs through the write-behind queue into an in-memory H2 database with the shipped schema and queries them back. */
+class HistoryStoreTest {
+
+    private static final String DOCUMENT = "statement.pdf";
+    private static final int MAX_ROWS_PER_JOB = 3;
+
+    private AnnotationConfigApplicationContext context;
+    private HistoryStore store;
+
+    @BeforeEach
+    void start() {
+        DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        new ResourceDatabasePopulator(new ClassPathResource("schema-h2.sql")).execute(dataSource);
+
+        context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("test", Map.of(
+                "pdfcompare.history.max-rows-per-job", MAX_ROWS_PER_JOB,
+                "pdfcompare.history.batch-size", 2)));
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        context.registerBean(DataSource.class, () -> dataSource);
+        context.register(ComparisonMetrics.class, HistoryStore.class);
+        context.refresh();
+        store = context.getBean(HistoryStore.class);
+    }
+
+    @AfterEach
+    void stop() {
+        context.close();
+    }
+
+    @Test
+    void historyListsRunsNewestFirst() throws Exception {
+        store.record(completed(differences(1, 2)), "job", differences(1, 2));
+        store.record(completed(differences()), "batch", differences());
+        store.recordCacheHit(completed(null));
+
+        List<RunSummary> runs = awaitRuns(3);
+        assertTrue(runs.get(0).cached);
+        assertNull(runs.get(0).differences);
+        assertEquals("batch", runs.get(1).source);
+        assertEquals(Boolean.TRUE, runs.get(1).passed);
+        assertEquals(0, runs.get(1).differences);
+        assertEquals(Boolean.FALSE, runs.get(2).passed);
+        assertEquals(2, runs.get(2).differences);
+    }
+
+    @Test
+    void flakyLinesCountOnlyFullRunsWithAllTheirRows() throws Exception {
+        record(differences(1, 2));
+        record(differences(1, 2));
+        record(differences(2));
+        // more rows than max-rows-per-job: lines 3 and 4 would look flaky, line 2 could not be counted as failing
+        record(differences(2, 3, 4, 5));
+        store.recordCacheHit(completed(null));
+        ComparisonJob stopped = job();
+        stopped.completed(PdfService.stoppedAt(1));
+        store.record(stopped, "job", differences(6));
+        ComparisonJob failed = job();
+        failed.failed("Cannot read the actual PDF");
+        store.record(failed, "job", null);
+        awaitRuns(7);
+
+        List<FlakyLine> flaky = store.flakyLines(DOCUMENT, Instant.EPOCH, 10);
+        assertEquals(1, flaky.size());
+        assertEquals(1, flaky.get(0).page);
+        assertEquals(1, flaky.get(0).expectedLine);
+        assertEquals("DELETED", flaky.get(0).change);
+        assertEquals(2, flaky.get(0).failingRuns);
+        assertEquals(3, flaky.get(0).totalRuns);
+    }
+
+    @Test
+    void noFlakyLinesBeforeTwoFullRuns() throws Exception {
+        record(differences(1));
+        awaitRuns(1);
+
+        assertTrue(store.flakyLines(DOCUMENT, Instant.EPOCH, 10).isEmpty());
+        assertFalse(store.history(DOCUMENT, Instant.EPOCH, 10).isEmpty());
+    }
+
+    private void record(LineDifferences differences) throws InterruptedException {
+        store.record(completed(differences), "job", differences);
+    }
+
+    private static ComparisonJob job() {
+        ComparisonJob job = new ComparisonJob(UUID.randomUUID().toString());
+        job.describe(DOCUMENT, "actual.pdf", null, null);
+        return job;
+    }
+
+    private static ComparisonJob completed(LineDifferences differences) throws InterruptedException {
+        // distinct finish times keep the newest-first order deterministic
+        Thread.sleep(2);
+        ComparisonJob job = job();
+        ComparisonOutcome outcome = new ComparisonOutcome();
+        outcome.passed = differences != null && differences.isEmpty();
+        job.completed(outcome);
+        return job;
+    }
+
+    /** One deleted-line row on page 1 for each of {@code lineNumbers}. */
+    private static LineDifferences differences(int... lineNumbers) {
+        LineStore expected = new LineStore();
+        LineDifferences differences = new LineDifferences(Map.of(), Map.of());
+        for (int lineNumber : lineNumbers) {
+            int line = expected.add(1, "Line " + lineNumber, "Helvetica", 110);
+            differences.add(1, LineDifferences.DELETED, LineDifferences.LINE, expected, line, lineNumber, null, -1, 0);
+        }
+        return differences;
+    }
+
+    /** Waits for the history writer to commit {@code count} runs of the document. */
+    private List<RunSummary> awaitRuns(int count) throws SQLException, InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        List<RunSummary> runs = store.history(DOCUMENT, Instant.EPOCH, 100);
+        while (runs.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            runs = store.history(DOCUMENT, Instant.EPOCH, 100);
+        }
+        assertEquals(count, runs.size());
+        return runs;
+    }
+}